@@ -0,0 +1,359 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.script;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.AttachmentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.SpaceReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.stability.Unstable;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.macros.viewfile.csv.CsvPage;
+import com.xwiki.macros.viewfile.csv.CsvQuery;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.csv.CsvPageReader;
+import com.xwiki.macros.viewfile.internal.macro.async.ViewFileThumbnailBatchRenderer;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailStoreSweeper;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailWarmupJob;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailWarmupRequest;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailGeneratorMetricsMXBean;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
+
+/**
+ * Script service for the View File macro.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component
+@Named("viewfile")
+@Singleton
+@Unstable
+public class ViewFileScriptService implements ScriptService
+{
+    private static final int MAX_CSV_PAGE_SIZE = 1000;
+
+    private static final int MAX_THUMBNAIL_BATCH_SIZE = 100;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private JobStatusStore jobStatusStore;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Inject
+    private ThumbnailStoreSweeper thumbnailStoreSweeper;
+
+    @Inject
+    @Named("current")
+    private SpaceReferenceResolver<String> spaceReferenceResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    @Named("current")
+    private AttachmentReferenceResolver<String> attachmentReferenceResolver;
+
+    @Inject
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @Inject
+    private ThumbnailMetrics thumbnailMetrics;
+
+    @Inject
+    private ViewFileThumbnailBatchRenderer thumbnailBatchRenderer;
+
+    @Inject
+    private CsvPageReader csvPageReader;
+
+    /**
+     * Start the generation of the thumbnails of all the attachments of a wiki or of a space, continuing after the last
+     * attachment processed by a previous interrupted run. Requires administration right on the wiki.
+     *
+     * @param wiki the wiki whose attachments are processed
+     * @param space the space whose attachments are processed, including its nested spaces, or an empty value to
+     *     process the whole wiki
+     * @param dryRun {@code true} to only count the attachments supporting thumbnails
+     * @param throttleDelay the number of milliseconds to wait after each generated thumbnail
+     * @return the started job, or {@code null} if the current user is not allowed to start it or if it failed to
+     *     start
+     * @see #startThumbnailWarmup(String, String, boolean, long, boolean)
+     */
+    public Job startThumbnailWarmup(String wiki, String space, boolean dryRun, long throttleDelay)
+    {
+        return startThumbnailWarmup(wiki, space, dryRun, throttleDelay, true);
+    }
+
+    /**
+     * Start the generation of the thumbnails of all the attachments of a wiki or of a space. Requires administration
+     * right on the wiki.
+     *
+     * @param wiki the wiki whose attachments are processed
+     * @param space the space whose attachments are processed, including its nested spaces, or an empty value to
+     *     process the whole wiki
+     * @param dryRun {@code true} to only count the attachments supporting thumbnails
+     * @param throttleDelay the number of milliseconds to wait after each generated thumbnail
+     * @param resume {@code true} to continue after the last attachment processed by a previous interrupted run,
+     *     {@code false} to start over and ignore the progress of the previous runs
+     * @return the started job, or {@code null} if the current user is not allowed to start it or if it failed to
+     *     start
+     */
+    public Job startThumbnailWarmup(String wiki, String space, boolean dryRun, long throttleDelay, boolean resume)
+    {
+        WikiReference wikiReference = new WikiReference(wiki);
+        if (!this.authorization.hasAccess(Right.ADMIN, wikiReference)) {
+            return null;
+        }
+        ThumbnailWarmupRequest request = new ThumbnailWarmupRequest();
+        request.setWiki(wiki);
+        request.setSpace(getLocalSpace(space, wikiReference));
+        request.setId(ThumbnailWarmupRequest.getJobId(wiki, request.getSpace()));
+        request.setDryRun(dryRun);
+        request.setThrottleDelay(throttleDelay);
+        request.setResume(resume);
+        request.setUserReference(this.wikiContextProvider.get().getUserReference());
+        try {
+            return this.jobExecutor.execute(ThumbnailWarmupJob.JOB_TYPE, request);
+        } catch (JobException e) {
+            this.logger.error("Failed to start the thumbnail warm-up of [{}]. Root cause is: [{}]",
+                request.getId(), ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    /**
+     * @param wiki the wiki whose attachments are processed
+     * @param space the space whose attachments are processed, or an empty value for the whole wiki
+     * @return the status of the running or last thumbnail warm-up of the given wiki or space, or {@code null} if
+     *     there is none or if the current user is not allowed to see it
+     */
+    public JobStatus getThumbnailWarmupStatus(String wiki, String space)
+    {
+        WikiReference wikiReference = new WikiReference(wiki);
+        if (!this.authorization.hasAccess(Right.ADMIN, wikiReference)) {
+            return null;
+        }
+        List<String> jobId = ThumbnailWarmupRequest.getJobId(wiki, getLocalSpace(space, wikiReference));
+        Job job = this.jobExecutor.getJob(jobId);
+        return job != null ? job.getStatus() : this.jobStatusStore.getJobStatus(jobId);
+    }
+
+    /**
+     * @return the size in bytes ({@code size}) and the number of thumbnails and CSV copies ({@code count}) of the
+     *     thumbnail store after its last sweep, along with the time of that sweep ({@code lastSweep}), or {@code null}
+     *     if the current user is not an administrator of the main wiki
+     */
+    public Map<String, Object> getThumbnailStoreStatistics()
+    {
+        if (!isMainWikiAdmin()) {
+            return null;
+        }
+        return Map.of("size", this.thumbnailStoreSweeper.getStoreSize(), "count",
+            this.thumbnailStoreSweeper.getEntryCount(), "lastSweep", this.thumbnailStoreSweeper.getLastSweepTime());
+    }
+
+    /**
+     * @return the thumbnail store hit ratio ({@code cacheHitCount}, {@code cacheMissCount}, {@code cacheHitRatio}) and
+     *     the office server conversion times ({@code officeConversionCount}, {@code meanOfficeConversionTime},
+     *     {@code maxOfficeConversionTime}, {@code officeConversionHistogram}), also exposed through JMX, or
+     *     {@code null} if the current user is not an administrator of the main wiki
+     */
+    public Map<String, Object> getThumbnailMetrics()
+    {
+        if (!isMainWikiAdmin()) {
+            return null;
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("cacheHitCount", this.thumbnailMetrics.getCacheHitCount());
+        metrics.put("cacheMissCount", this.thumbnailMetrics.getCacheMissCount());
+        metrics.put("cacheHitRatio", this.thumbnailMetrics.getCacheHitRatio());
+        metrics.put("officeConversionCount", this.thumbnailMetrics.getOfficeConversionCount());
+        metrics.put("meanOfficeConversionTime", this.thumbnailMetrics.getMeanOfficeConversionTime());
+        metrics.put("maxOfficeConversionTime", this.thumbnailMetrics.getMaxOfficeConversionTime());
+        metrics.put("officeConversionHistogram", this.thumbnailMetrics.getOfficeConversionHistogram());
+        return metrics;
+    }
+
+    /**
+     * @param hint the hint of a thumbnail generator, i.e. {@code pdf}, {@code office} or {@code presentation}
+     * @return the generation latency ({@code generationCount}, {@code meanLatency}, {@code maxLatency},
+     *     {@code latencyHistogram}), failures ({@code failureCount}, {@code failuresByCause}), bytes read
+     *     ({@code bytesRead}) and queue metrics ({@code queueDepth}, {@code rejectedCount},
+     *     {@code meanQueueWaitTime}, {@code maxQueueWaitTime}) of the given thumbnail generator, also exposed through
+     *     JMX, or {@code null} if there is no such generator or if the current user is not an administrator of the
+     *     main wiki
+     */
+    public Map<String, Object> getThumbnailGeneratorMetrics(String hint)
+    {
+        ThumbnailGeneratorMetricsMXBean generatorMetrics =
+            isMainWikiAdmin() ? this.thumbnailMetrics.getGeneratorMetrics(hint) : null;
+        if (generatorMetrics == null) {
+            return null;
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hint", generatorMetrics.getHint());
+        metrics.put("generationCount", generatorMetrics.getGenerationCount());
+        metrics.put("failureCount", generatorMetrics.getFailureCount());
+        metrics.put("failuresByCause", generatorMetrics.getFailuresByCause());
+        metrics.put("bytesRead", generatorMetrics.getBytesRead());
+        metrics.put("meanLatency", generatorMetrics.getMeanLatency());
+        metrics.put("maxLatency", generatorMetrics.getMaxLatency());
+        metrics.put("latencyHistogram", generatorMetrics.getLatencyHistogram());
+        metrics.put("queueDepth", generatorMetrics.getQueueDepth());
+        metrics.put("rejectedCount", generatorMetrics.getRejectedCount());
+        metrics.put("meanQueueWaitTime", generatorMetrics.getMeanQueueWaitTime());
+        metrics.put("maxQueueWaitTime", generatorMetrics.getMaxQueueWaitTime());
+        return metrics;
+    }
+
+    /**
+     * Check if an attachment is too big to be converted for display. The verdict is cached per attachment version.
+     *
+     * @param attachment the reference of the attachment
+     * @return {@code true} if the attachment is too big to be displayed, doesn't exist, can't be checked or can't be
+     *     viewed by the current user, {@code false} otherwise
+     */
+    public boolean isAttachmentOversize(String attachment)
+    {
+        AttachmentReference attachmentReference =
+            this.attachmentReferenceResolver.resolve(attachment, EntityType.ATTACHMENT);
+        if (!this.authorization.hasAccess(Right.VIEW, attachmentReference)) {
+            return true;
+        }
+        try {
+            return this.attachmentSizeValidator.isAttachmentOversize(attachmentReference);
+        } catch (Exception e) {
+            this.logger.warn("Failed to check the size of [{}]. Root cause is: [{}]", attachmentReference,
+                ExceptionUtils.getRootCauseMessage(e));
+            return true;
+        }
+    }
+
+    /**
+     * Render the thumbnails of the given attachments at once, waiting for their generations together. Used by the
+     * browser to fill the thumbnail placeholders of a page with a single request.
+     *
+     * @param attachments the references of the attachments; only the first 100 attachments are rendered
+     * @param inline {@code true} if the thumbnails are displayed inline
+     * @return the HTML of the thumbnails, indexed by the given attachment references; the attachments that the current
+     *     user is not allowed to view are ignored
+     */
+    public Map<String, String> getThumbnails(List<String> attachments, boolean inline)
+    {
+        Map<AttachmentReference, String> attachmentReferences = new LinkedHashMap<>();
+        for (String attachment : attachments.subList(0, Math.min(attachments.size(), MAX_THUMBNAIL_BATCH_SIZE))) {
+            AttachmentReference attachmentReference =
+                this.attachmentReferenceResolver.resolve(attachment, EntityType.ATTACHMENT);
+            if (this.authorization.hasAccess(Right.VIEW, attachmentReference)) {
+                attachmentReferences.putIfAbsent(attachmentReference, attachment);
+            }
+        }
+        Map<String, String> thumbnails = new LinkedHashMap<>();
+        this.thumbnailBatchRenderer.render(attachmentReferences.keySet(), inline)
+            .forEach((reference, html) -> thumbnails.put(attachmentReferences.get(reference), html));
+        return thumbnails;
+    }
+
+    /**
+     * @return a new query for {@link #getCsvPage(String, CsvQuery)}, reading the first page of a CSV file whose first
+     *     line holds the column names
+     */
+    public CsvQuery createCsvQuery()
+    {
+        return new CsvQuery();
+    }
+
+    /**
+     * Read a page of rows of a CSV attachment, optionally filtered and sorted. Used by the browser to browse the full
+     * view of a CSV file without rendering all its rows.
+     *
+     * @param attachment the reference of the CSV attachment
+     * @param query the parsing parameters and the requested rows; at most 1000 rows are returned
+     * @return the requested page of rows, or {@code null} if the attachment doesn't exist, can't be read or can't be
+     *     viewed by the current user
+     */
+    public CsvPage getCsvPage(String attachment, CsvQuery query)
+    {
+        AttachmentReference attachmentReference =
+            this.attachmentReferenceResolver.resolve(attachment, EntityType.ATTACHMENT);
+        if (!this.authorization.hasAccess(Right.VIEW, attachmentReference)) {
+            return null;
+        }
+        query.setLimit(Math.min(query.getLimit(), MAX_CSV_PAGE_SIZE));
+        try {
+            return this.csvPageReader.getPage(attachmentReference, query);
+        } catch (Exception e) {
+            this.logger.warn("Failed to read the rows of [{}]. Root cause is: [{}]", attachmentReference,
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    private boolean isMainWikiAdmin()
+    {
+        WikiReference mainWikiReference = new WikiReference(this.wikiContextProvider.get().getMainXWiki());
+        return this.authorization.hasAccess(Right.ADMIN, mainWikiReference);
+    }
+
+    private String getLocalSpace(String space, WikiReference wikiReference)
+    {
+        if (StringUtils.isBlank(space)) {
+            return null;
+        }
+        SpaceReference spaceReference = this.spaceReferenceResolver.resolve(space, wikiReference);
+        return this.localSerializer.serialize(spaceReference);
+    }
+}
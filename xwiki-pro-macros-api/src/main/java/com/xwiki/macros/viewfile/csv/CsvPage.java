@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.csv;
+
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A page of rows of a CSV file.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Unstable
+public final class CsvPage
+{
+    private final List<String> headers;
+
+    private final List<List<String>> rows;
+
+    private final int offset;
+
+    private final int total;
+
+    /**
+     * @param headers the names of the columns, empty if the file has no header line
+     * @param rows the values of the rows of the page
+     * @param offset the index of the first row of the page, among the filtered and sorted rows
+     * @param total the number of rows matching the filter
+     */
+    public CsvPage(List<String> headers, List<List<String>> rows, int offset, int total)
+    {
+        this.headers = List.copyOf(headers);
+        this.rows = List.copyOf(rows);
+        this.offset = offset;
+        this.total = total;
+    }
+
+    /**
+     * @return the names of the columns, empty if the file has no header line
+     */
+    public List<String> getHeaders()
+    {
+        return this.headers;
+    }
+
+    /**
+     * @return the values of the rows of the page
+     */
+    public List<List<String>> getRows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * @return the index of the first row of the page, among the filtered and sorted rows
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @return the number of rows matching the filter
+     */
+    public int getTotal()
+    {
+        return this.total;
+    }
+}
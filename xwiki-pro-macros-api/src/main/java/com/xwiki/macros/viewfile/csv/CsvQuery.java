@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.csv;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The rows of a CSV file requested by its full view: how the file is parsed, and which page of rows is displayed,
+ * filtered and sorted.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Unstable
+public class CsvQuery
+{
+    private String format;
+
+    private String delimiter;
+
+    private boolean firstLineIsHeader = true;
+
+    private int offset;
+
+    private int limit;
+
+    private int sortColumn = -1;
+
+    private boolean descending;
+
+    private String filter;
+
+    /**
+     * @return the name of the {@link org.apache.commons.csv.CSVFormat.Predefined} format of the file, or an empty
+     *     value for the default format
+     */
+    public String getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * @param format the name of the {@link org.apache.commons.csv.CSVFormat.Predefined} format of the file
+     */
+    public void setFormat(String format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * @return the delimiter of the values, or an empty value for the delimiter of the format
+     */
+    public String getDelimiter()
+    {
+        return this.delimiter;
+    }
+
+    /**
+     * @param delimiter the delimiter of the values
+     */
+    public void setDelimiter(String delimiter)
+    {
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * @return {@code true} if the first line of the file holds the column names
+     */
+    public boolean isFirstLineIsHeader()
+    {
+        return this.firstLineIsHeader;
+    }
+
+    /**
+     * @param firstLineIsHeader {@code true} if the first line of the file holds the column names
+     */
+    public void setFirstLineIsHeader(boolean firstLineIsHeader)
+    {
+        this.firstLineIsHeader = firstLineIsHeader;
+    }
+
+    /**
+     * @return the index of the first requested row, among the filtered and sorted rows
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @param offset the index of the first requested row, among the filtered and sorted rows
+     */
+    public void setOffset(int offset)
+    {
+        this.offset = offset;
+    }
+
+    /**
+     * @return the maximum number of requested rows
+     */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    /**
+     * @param limit the maximum number of requested rows
+     */
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the index of the column used to sort the rows, or a negative value to keep the order of the file
+     */
+    public int getSortColumn()
+    {
+        return this.sortColumn;
+    }
+
+    /**
+     * @param sortColumn the index of the column used to sort the rows, or a negative value to keep the order of the
+     *     file
+     */
+    public void setSortColumn(int sortColumn)
+    {
+        this.sortColumn = sortColumn;
+    }
+
+    /**
+     * @return {@code true} to sort the rows in descending order
+     */
+    public boolean isDescending()
+    {
+        return this.descending;
+    }
+
+    /**
+     * @param descending {@code true} to sort the rows in descending order
+     */
+    public void setDescending(boolean descending)
+    {
+        this.descending = descending;
+    }
+
+    /**
+     * @return the text that the requested rows must contain in one of their values, ignoring case, or an empty value
+     *     to request all the rows
+     */
+    public String getFilter()
+    {
+        return this.filter;
+    }
+
+    /**
+     * @param filter the text that the requested rows must contain in one of their values, ignoring case
+     */
+    public void setFilter(String filter)
+    {
+        this.filter = filter;
+    }
+}
@@ -19,14 +19,25 @@
  */
 package com.xwiki.macros.viewfile.internal;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import javax.inject.Inject;
@@ -43,6 +54,7 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
 
 /**
  * Checks if Office 2007 and ODF document attachments are oversize by checking the ZIP entries size or if an excessive
@@ -50,6 +62,11 @@ import com.xpn.xwiki.doc.XWikiDocument;
  * processing (e.g., conversion or rendering), by applying constraints derived from Apache POI and LibreOffice
  * limitations. This class can be removed after this issue is fixed:
  * XWIKI-11174: Do not compromise the XWiki instance when viewing an office document too large to be HTML-cleaned
+ * <p>
+ * The entry sizes of the large archives are read from the ZIP central directory, so only the small metadata entries
+ * are decompressed, while the small archives are read in a single pass without being copied to a file. The verdict
+ * is computed once per attachment version: it is cached in memory and stored next to the attachment thumbnails, so
+ * that it survives a restart.
  *
  * @version $Id$
  * @since 1.27.1
@@ -64,9 +81,36 @@ public class AttachmentSizeValidator
 
     private static final int MAX_PARAGRAPHS = 200_000;
 
+    private static final int MAX_CACHED_VERDICTS = 10000;
+
+    private static final String VERDICT_EXTENSION = ".oversize";
+
+    /**
+     * The signature of a ZIP local file header, which starts any archive holding at least one entry.
+     */
+    private static final byte[] ZIP_SIGNATURE = { 0x50, 0x4B, 0x03, 0x04 };
+
+    private final Map<String, Boolean> verdicts =
+        Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > MAX_CACHED_VERDICTS;
+            }
+        });
+
     @Inject
     private Provider<XWikiContext> wikiContextProvider;
 
+    @Inject
+    private TemporaryFileManager temporaryFileManager;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
     @Inject
     private Logger logger;
 
@@ -88,58 +132,136 @@ public class AttachmentSizeValidator
             return true;
         }
         String extension = attachRef.getName().substring(attachRef.getName().lastIndexOf('.') + 1).toLowerCase();
-        boolean isOversize = false;
-        if (!OLD_OFFICE_EXTENSIONS.contains(extension)) {
-            InputStream is = attachment.getContentInputStream(wikiContext);
-            isOversize = containsOversizeEntry(is);
+        if (OLD_OFFICE_EXTENSIONS.contains(extension)) {
+            return false;
+        }
+
+        String versionKey = AttachmentVersionProvider.getVersionKey(attachment);
+        String cacheKey = String.format("%s@%s", attachRef, versionKey);
+        Boolean isOversize = verdicts.get(cacheKey);
+        if (isOversize == null) {
+            File verdictFile = temporaryFileManager.getVersionFile(attachRef, versionKey, VERDICT_EXTENSION);
+            isOversize = readVerdict(verdictFile);
+            if (isOversize == null) {
+                isOversize = containsOversizeEntry(attachment, wikiContext);
+                writeVerdict(verdictFile, isOversize);
+            }
+            verdicts.put(cacheKey, isOversize);
         }
         return isOversize;
     }
 
-    private boolean containsOversizeEntry(InputStream file) throws IOException
+    private boolean containsOversizeEntry(XWikiAttachment attachment, XWikiContext wikiContext)
+        throws XWikiException, IOException
     {
-        int maxEntrySize = IOUtils.getMaxByteArrayInitSize();
-        if (maxEntrySize == -1) {
-            maxEntrySize = MAX_ENTRY_LENGTH;
+        File file;
+        try (InputStream content = new BufferedInputStream(attachment.getContentInputStream(wikiContext))) {
+            if (!isZipArchive(content)) {
+                // Not an archive, so there are no entries to check.
+                return false;
+            }
+            if (attachment.getLongSize() <= this.configuration.getThumbnailSpoolThreshold()) {
+                // Small archives are read in a single pass, with the entry sizes of their local headers.
+                return containsOversizeEntry(new ZipInputStream(content));
+            }
+            // The ZIP central directory needs random access, so large archives are copied to a file first.
+            file = temporaryFileManager.spool(content, ".zip");
         }
-        try (ZipInputStream zis = new ZipInputStream(file)) {
+        try {
+            return containsOversizeEntry(file);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private boolean isZipArchive(InputStream content) throws IOException
+    {
+        content.mark(ZIP_SIGNATURE.length);
+        byte[] signature = content.readNBytes(ZIP_SIGNATURE.length);
+        content.reset();
+        return Arrays.equals(ZIP_SIGNATURE, signature);
+    }
+
+    private boolean containsOversizeEntry(File file) throws IOException
+    {
+        int maxEntrySize = getMaxEntrySize();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream entryContent = zipFile.getInputStream(entry)) {
+                    if (isOversizeEntry(entry, entryContent, maxEntrySize)) {
+                        return true;
+                    }
+                }
+            }
+        } catch (ZipException e) {
+            // Not an archive, so there are no entries to check.
+            logger.debug("Failed to read the entries of [{}]. Root cause is: [{}]", file,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        return false;
+    }
+
+    private boolean containsOversizeEntry(ZipInputStream zipInputStream) throws IOException
+    {
+        int maxEntrySize = getMaxEntrySize();
+        try {
             ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                // Check the metadata of a DOCX file to verify if the number of paragraphs are above the limit.
-                switch (entry.getName()) {
-                    case "docProps/app.xml":
-                        if (exceedsParagraphLimit(zis, "<Paragraphs>(\\d+)</Paragraphs>", "<Paragraphs>")) {
-                            return true;
-                        }
-                        break;
-                    case "meta.xml":
-                        if (exceedsParagraphLimit(zis, "meta:paragraph-count\\s*=\\s*\"(\\d+)\"", "paragraph-count")) {
-                            return true;
-                        }
-                        break;
-                    default:
-                        // Check if the size of the entry are above the Apache POI max record size.
-                        long entrySize = entry.getSize();
-                        if (entry.getSize() == -1) {
-                            entrySize = getEntrySize(zis);
-                        }
-                        if (entrySize > maxEntrySize) {
-                            logger.warn(
-                                "File entry size is larger then the maximum length for this record type set at [{}].",
-                                maxEntrySize);
-                            return true;
-                        }
-                        break;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                if (isOversizeEntry(entry, zipInputStream, maxEntrySize)) {
+                    return true;
                 }
-                zis.closeEntry();
             }
+        } catch (ZipException e) {
+            // Not an archive, so there are no entries to check.
+            logger.debug("Failed to read the archive entries. Root cause is: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
         }
         return false;
     }
 
-    private boolean exceedsParagraphLimit(ZipInputStream zis, String regex, String selector) throws IOException
+    private int getMaxEntrySize()
+    {
+        int maxEntrySize = IOUtils.getMaxByteArrayInitSize();
+        return maxEntrySize == -1 ? MAX_ENTRY_LENGTH : maxEntrySize;
+    }
+
+    /**
+     * @param entry an archive entry
+     * @param entryContent the content of the entry, read only if needed and left open
+     * @param maxEntrySize the maximum size of an entry
+     * @return {@code true} if the entry is too big, or declares too many paragraphs
+     */
+    private boolean isOversizeEntry(ZipEntry entry, InputStream entryContent, int maxEntrySize) throws IOException
     {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(zis));
+        // Check the metadata of a DOCX file to verify if the number of paragraphs are above the limit.
+        switch (entry.getName()) {
+            case "docProps/app.xml":
+                return exceedsParagraphLimit(entryContent, "<Paragraphs>(\\d+)</Paragraphs>", "<Paragraphs>");
+            case "meta.xml":
+                return exceedsParagraphLimit(entryContent, "meta:paragraph-count\\s*=\\s*\"(\\d+)\"",
+                    "paragraph-count");
+            default:
+                // Check if the size of the entry are above the Apache POI max record size.
+                long entrySize = entry.getSize();
+                if (entrySize == -1) {
+                    entrySize = getEntrySize(entryContent, maxEntrySize);
+                }
+                if (entrySize > maxEntrySize) {
+                    logger.warn("File entry size is larger then the maximum length for this record type set at [{}].",
+                        maxEntrySize);
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    private boolean exceedsParagraphLimit(InputStream entryContent, String regex, String selector)
+        throws IOException
+    {
+        // The reader isn't closed, the entry content belongs to the caller.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entryContent, StandardCharsets.UTF_8));
         String line;
         while ((line = reader.readLine()) != null) {
             if (line.contains(selector)) {
@@ -162,14 +284,44 @@ public class AttachmentSizeValidator
         return false;
     }
 
-    private long getEntrySize(ZipInputStream zis) throws IOException
+    private long getEntrySize(InputStream entryContent, int maxEntrySize) throws IOException
     {
+        // The central directory should always provide the size, but the local headers may not. The entry is only read
+        // until it exceeds the maximum size.
         long size = 0;
         int read;
         byte[] buffer = new byte[8192];
-        while ((read = zis.read(buffer)) != -1) {
+        while (size <= maxEntrySize && (read = entryContent.read(buffer)) != -1) {
             size += read;
         }
         return size;
     }
+
+    private Boolean readVerdict(File verdictFile)
+    {
+        try {
+            if (verdictFile.exists()) {
+                String verdict = Files.readString(verdictFile.toPath(), StandardCharsets.UTF_8).trim();
+                // Ignore a partially written verdict.
+                if (Boolean.TRUE.toString().equals(verdict) || Boolean.FALSE.toString().equals(verdict)) {
+                    return Boolean.valueOf(verdict);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to read the oversize verdict [{}]. Root cause is: [{}]", verdictFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        return null;
+    }
+
+    private void writeVerdict(File verdictFile, boolean isOversize)
+    {
+        try {
+            Files.createDirectories(verdictFile.toPath().getParent());
+            Files.writeString(verdictFile.toPath(), Boolean.toString(isOversize), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Failed to store the oversize verdict [{}]. Root cause is: [{}]", verdictFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
 }
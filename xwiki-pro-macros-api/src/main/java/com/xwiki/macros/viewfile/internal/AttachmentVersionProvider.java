@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.AttachmentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Computes a key identifying the current version of an attachment. The key combines the attachment version with its
+ * date, so that an attachment deleted and uploaded again (which restarts at version 1.1) gets a different key.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = AttachmentVersionProvider.class)
+@Singleton
+public class AttachmentVersionProvider
+{
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    /**
+     * @param attachmentReference the reference of the attachment
+     * @return the key of the current version of the attachment, or {@code null} if the attachment doesn't exist
+     * @throws XWikiException if the document holding the attachment can't be loaded
+     */
+    public String getVersionKey(AttachmentReference attachmentReference) throws XWikiException
+    {
+        XWikiContext wikiContext = this.wikiContextProvider.get();
+        XWikiDocument document =
+            wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
+        XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+        return attachment != null ? getVersionKey(attachment) : null;
+    }
+
+    /**
+     * @param attachment the attachment
+     * @return the key of the current version of the attachment
+     */
+    public static String getVersionKey(XWikiAttachment attachment)
+    {
+        long timestamp = attachment.getDate() != null ? attachment.getDate().getTime() : 0L;
+        return String.format("%s-%d", attachment.getVersion(), timestamp);
+    }
+}
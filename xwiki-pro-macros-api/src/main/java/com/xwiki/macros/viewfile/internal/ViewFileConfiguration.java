@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.officeimporter.server.OfficeServerConfiguration;
+
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGenerator;
+
+/**
+ * Configuration of the View File macro, read from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ViewFileConfiguration.class)
+@Singleton
+public class ViewFileConfiguration
+{
+    private static final String PREFIX = "viewfile.";
+
+    private static final String THUMBNAIL_PREFIX = PREFIX + "thumbnail.";
+
+    private static final String CSV_PREFIX = PREFIX + "csv.";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private OfficeServerConfiguration officeServerConfiguration;
+
+    /**
+     * @param hint the hint of the thumbnail generator
+     * @return the maximum number of thumbnails of the given type that can be generated at the same time; office
+     *     thumbnails default to one per office server port
+     */
+    public int getThumbnailPoolSize(String hint)
+    {
+        int defaultPoolSize = 2;
+        if (OfficeThumbnailGenerator.HINT.equals(hint)) {
+            int[] serverPorts = this.officeServerConfiguration.getServerPorts();
+            defaultPoolSize = serverPorts != null ? serverPorts.length : 1;
+        }
+        return Math.max(1, this.configuration.getProperty(THUMBNAIL_PREFIX + hint + ".poolSize", defaultPoolSize));
+    }
+
+    /**
+     * @param hint the hint of the thumbnail generator
+     * @return the maximum number of thumbnails of the given type waiting to be generated; the mime type placeholder is
+     *     displayed for new requests once this limit is reached
+     */
+    public int getThumbnailQueueSize(String hint)
+    {
+        return Math.max(1, this.configuration.getProperty(THUMBNAIL_PREFIX + hint + ".queueSize", 20));
+    }
+
+    /**
+     * @return the number of seconds the renderer waits for a scheduled thumbnail before falling back to the mime type
+     *     placeholder
+     */
+    public long getThumbnailWaitTimeout()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "waitTimeout", 20L);
+    }
+
+    /**
+     * @return {@code true} if the thumbnails should be generated in the background as soon as an attachment is added
+     *     or updated, {@code false} if they should be generated when first displayed
+     */
+    public boolean isThumbnailPregenerationEnabled()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "pregenerate", false);
+    }
+
+    /**
+     * @return {@code true} if the thumbnails of a page should be loaded by the browser with a single request once the
+     *     page is displayed, {@code false} if each thumbnail should be loaded by its own async rendering job
+     */
+    public boolean isThumbnailBatchEnabled()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "batch", false);
+    }
+
+    /**
+     * @return {@code true} if the thumbnails should only be generated once they are about to be displayed in the
+     *     browser viewport, {@code false} if they should be generated as soon as the page is rendered; only used when
+     *     the thumbnails are loaded in batch
+     */
+    public boolean isThumbnailLazyLoadingEnabled()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "lazy", false);
+    }
+
+    /**
+     * @return the size in bytes above which an attachment is copied to a temporary file before generating its
+     *     thumbnail, so that it is read on demand instead of being loaded in memory
+     */
+    public long getThumbnailSpoolThreshold()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "spoolThreshold", 16 * MEGABYTE);
+    }
+
+    /**
+     * @return the maximum number of bytes of heap used by the PDF parser buffers of a thumbnail generation before
+     *     switching to temporary files, or a negative value to only use the heap
+     */
+    public long getPdfMaxMainMemory()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "pdf.maxMainMemory", 64 * MEGABYTE);
+    }
+
+    /**
+     * @return {@code true} if the PDF thumbnails should be rendered with subsampled images and speed oriented
+     *     rendering hints, trading quality for lower CPU and memory usage
+     */
+    public boolean isPdfFastRenderingEnabled()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "pdf.fastRendering", false);
+    }
+
+    /**
+     * @return the maximum size in bytes of the thumbnail store, holding the thumbnails and the normalized copies of
+     *     the CSV attachments, above which the least recently used files are removed, or a negative value for no limit
+     */
+    public long getThumbnailStoreQuota()
+    {
+        return this.configuration.getProperty(THUMBNAIL_PREFIX + "storeQuota", 1024 * MEGABYTE);
+    }
+
+    /**
+     * @return the number of minutes between two sweeps of the thumbnail store, which remove the thumbnails of deleted
+     *     attachments and enforce the store quota
+     */
+    public long getThumbnailStoreSweepInterval()
+    {
+        return Math.max(1L, this.configuration.getProperty(THUMBNAIL_PREFIX + "sweepInterval", 60L));
+    }
+
+    /**
+     * @return the number of seconds during which a failed thumbnail generation is not retried; the delay doubles with
+     *     each new failure of the same attachment version
+     */
+    public long getThumbnailFailureTTL()
+    {
+        return Math.max(0L, this.configuration.getProperty(THUMBNAIL_PREFIX + "failureTTL", 300L));
+    }
+
+    /**
+     * @return the maximum number of seconds during which a failed thumbnail generation is not retried
+     */
+    public long getThumbnailFailureMaxTTL()
+    {
+        return Math.max(0L, this.configuration.getProperty(THUMBNAIL_PREFIX + "failureMaxTTL", 86400L));
+    }
+
+    /**
+     * @return the number of rows of a CSV file displayed per page of its full view
+     */
+    public int getCsvPageSize()
+    {
+        return Math.max(1, this.configuration.getProperty(CSV_PREFIX + "pageSize", 100));
+    }
+
+    /**
+     * @return the maximum number of rows of a sorted CSV file that can be browsed; sorting keeps these rows in memory
+     */
+    public int getCsvMaxSortedRows()
+    {
+        return Math.max(1, this.configuration.getProperty(CSV_PREFIX + "maxSortedRows", 10000));
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.AttachmentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.csv.CsvPage;
+import com.xwiki.macros.viewfile.csv.CsvQuery;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
+
+/**
+ * Reads pages of rows from CSV attachments. Each attachment version is parsed once into a normalized temporary file
+ * whose row offsets are indexed, so that a page of the file order is read without parsing the previous rows, and
+ * without keeping the whole file in memory. Filtering streams the rows of this file, and sorting keeps at most
+ * {@link ViewFileConfiguration#getCsvMaxSortedRows()} rows in memory.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = CsvPageReader.class)
+@Singleton
+public class CsvPageReader
+{
+    private static final int MAX_CACHED_INDEXES = 100;
+
+    private static final CSVFormat NORMALIZED_FORMAT = CSVFormat.DEFAULT;
+
+    /**
+     * The plain decimal numbers, sorted by value. Unlike {@link Double#valueOf(String)}, the hexadecimal numbers and
+     * the type suffixes are not accepted, so that such values are sorted as text.
+     */
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][-+]?\\d+)?");
+
+    private final Map<List<Object>, CsvRowIndex> indexes =
+        Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CsvRowIndex> eldest)
+            {
+                return size() > MAX_CACHED_INDEXES;
+            }
+        });
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Inject
+    private AttachmentVersionProvider versionProvider;
+
+    @Inject
+    private TemporaryFileManager temporaryFileManager;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    /**
+     * Build the format used to parse a CSV attachment.
+     *
+     * @param query the parsing parameters
+     * @param fileExtension the extension of the attachment; tab separated values are read from {@code tsv} files
+     *     when no delimiter is given
+     * @return the format used to parse the attachment
+     */
+    public static CSVFormat getFormat(CsvQuery query, String fileExtension)
+    {
+        CSVFormat format = CSVFormat.DEFAULT;
+        if (StringUtils.isNotEmpty(query.getFormat())) {
+            // Only the predefined formats are accepted.
+            format = CSVFormat.Predefined.valueOf(query.getFormat()).getFormat();
+        }
+
+        CSVFormat.Builder builder = format.builder().setTrim(true);
+        if (StringUtils.isNotEmpty(query.getDelimiter())) {
+            builder.setDelimiter(query.getDelimiter());
+        } else if ("tsv".equals(fileExtension)) {
+            builder.setDelimiter("\t");
+        }
+
+        if (query.isFirstLineIsHeader()) {
+            builder.setHeader().setSkipHeaderRecord(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param attachmentReference the reference of the CSV attachment
+     * @param query the parsing parameters and the requested rows
+     * @return the requested page of rows; rows past the {@link ViewFileConfiguration#getCsvMaxSortedRows()} first
+     *     rows of a sorted file are not returned
+     * @throws IOException if the attachment doesn't exist or can't be read
+     * @throws XWikiException if the document holding the attachment can't be loaded
+     */
+    public CsvPage getPage(AttachmentReference attachmentReference, CsvQuery query) throws IOException, XWikiException
+    {
+        String versionKey = this.versionProvider.getVersionKey(attachmentReference);
+        if (versionKey == null) {
+            throw new IOException(String.format("Attachment [%s] not found.", attachmentReference));
+        }
+        String name = attachmentReference.getName();
+        CSVFormat format = getFormat(query, StringUtils.substringAfterLast(name, ".").toLowerCase());
+        CsvRowIndex index = getIndex(attachmentReference, versionKey, format, getFormatKey(query));
+
+        int offset = Math.max(0, query.getOffset());
+        int limit = Math.max(0, query.getLimit());
+        if (query.getSortColumn() >= 0) {
+            return getSortedPage(index, query, offset, limit);
+        } else if (StringUtils.isNotEmpty(query.getFilter())) {
+            return getFilteredPage(index, query.getFilter(), offset, limit);
+        } else {
+            return new CsvPage(index.getHeaders(), readRows(index, offset, limit), offset, index.getRowCount());
+        }
+    }
+
+    /**
+     * @return the key identifying the parameters used to parse the attachment, once they have been validated by
+     *     {@link #getFormat(CsvQuery, String)}
+     */
+    private static String getFormatKey(CsvQuery query)
+    {
+        String formatName = StringUtils.defaultIfEmpty(query.getFormat(), CSVFormat.Predefined.Default.name());
+        // The delimiter comes last since it may hold any character.
+        return String.format("%s:%s:%s", formatName, query.isFirstLineIsHeader(),
+            StringUtils.defaultString(query.getDelimiter()));
+    }
+
+    private CsvRowIndex getIndex(AttachmentReference attachmentReference, String versionKey, CSVFormat format,
+        String formatKey) throws IOException, XWikiException
+    {
+        List<Object> key = Arrays.asList(attachmentReference, versionKey, formatKey);
+        CsvRowIndex index = this.indexes.get(key);
+        if (index == null || !index.getFile().exists()) {
+            // The extension identifies the parsing parameters, so that each format gets its own normalized file.
+            String extension = String.format(".%s.csv", sha256(formatKey));
+            File file = this.temporaryFileManager.getCsvFile(attachmentReference, versionKey, extension);
+            index = createIndex(attachmentReference, format, file);
+            this.indexes.put(key, index);
+            this.temporaryFileManager.deleteOtherCsvVersions(attachmentReference, versionKey);
+        } else {
+            // The least recently used copies are removed when the thumbnail store is full.
+            this.temporaryFileManager.markAccessed(index.getFile());
+        }
+        return index;
+    }
+
+    private static String sha256(String value)
+    {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CsvRowIndex createIndex(AttachmentReference attachmentReference, CSVFormat format, File file)
+        throws IOException, XWikiException
+    {
+        XWikiContext context = this.wikiContextProvider.get();
+        XWikiDocument document = context.getWiki().getDocument(attachmentReference.getDocumentReference(), context);
+        XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+        if (attachment == null) {
+            throw new IOException(String.format("Attachment [%s] not found.", attachmentReference));
+        }
+
+        Path parent = file.toPath().getParent();
+        Files.createDirectories(parent);
+        // Write to a temporary file first, so that a concurrent reader never sees a partial file. Its name starts with
+        // the version, so that it's kept when the copies of the other versions are removed.
+        Path temporaryFile = Files.createTempFile(parent, file.getName(), ".tmp");
+        try (InputStream input = attachment.getContentInputStream(context);
+            CSVParser parser = format.parse(new InputStreamReader(input, StandardCharsets.UTF_8));
+            OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporaryFile)))
+        {
+            StringBuilder buffer = new StringBuilder();
+            CSVPrinter printer = new CSVPrinter(buffer, NORMALIZED_FORMAT);
+            List<Long> offsets = new ArrayList<>();
+            long position = 0;
+            int rowCount = 0;
+            for (CSVRecord csvRecord : parser) {
+                if (rowCount % CsvRowIndex.INTERVAL == 0) {
+                    offsets.add(position);
+                }
+                buffer.setLength(0);
+                printer.printRecord(csvRecord);
+                byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                output.write(bytes);
+                position += bytes.length;
+                rowCount++;
+            }
+            output.close();
+            Files.move(temporaryFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            long[] offsetArray = offsets.stream().mapToLong(Long::longValue).toArray();
+            return new CsvRowIndex(file, parser.getHeaderNames(), rowCount, offsetArray);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private List<List<String>> readRows(CsvRowIndex index, int offset, int limit) throws IOException
+    {
+        List<List<String>> rows = new ArrayList<>();
+        if (offset >= index.getRowCount() || limit == 0) {
+            return rows;
+        }
+        try (FileChannel channel = FileChannel.open(index.getFile().toPath(), StandardOpenOption.READ)) {
+            channel.position(index.getOffset(offset));
+            try (CSVParser parser = NORMALIZED_FORMAT.parse(Channels.newReader(channel, StandardCharsets.UTF_8))) {
+                int skipped = offset % CsvRowIndex.INTERVAL;
+                for (CSVRecord csvRecord : parser) {
+                    if (skipped > 0) {
+                        skipped--;
+                    } else if (rows.size() < limit) {
+                        rows.add(csvRecord.toList());
+                    } else {
+                        break;
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private CsvPage getFilteredPage(CsvRowIndex index, String filter, int offset, int limit) throws IOException
+    {
+        List<List<String>> rows = new ArrayList<>();
+        int[] total = new int[1];
+        forEachRow(index, filter, row -> {
+            if (total[0] >= offset && rows.size() < limit) {
+                rows.add(row);
+            }
+            total[0]++;
+        });
+        return new CsvPage(index.getHeaders(), rows, offset, total[0]);
+    }
+
+    private CsvPage getSortedPage(CsvRowIndex index, CsvQuery query, int offset, int limit) throws IOException
+    {
+        Comparator<IndexedRow> comparator = getComparator(query.getSortColumn(), query.isDescending());
+        // Only keep the rows up to the end of the requested page, in a heap whose head is the last of these rows.
+        int kept = Math.min(offset + limit, this.configuration.getCsvMaxSortedRows());
+        PriorityQueue<IndexedRow> heap = new PriorityQueue<>(Math.max(1, kept), comparator.reversed());
+        int[] total = new int[1];
+        forEachRow(index, query.getFilter(), row -> {
+            IndexedRow indexedRow = new IndexedRow(total[0]++, row);
+            if (heap.size() < kept) {
+                heap.add(indexedRow);
+            } else if (kept > 0 && comparator.compare(indexedRow, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(indexedRow);
+            }
+        });
+
+        List<IndexedRow> sortedRows = new ArrayList<>(heap);
+        sortedRows.sort(comparator);
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = offset; i < sortedRows.size(); i++) {
+            rows.add(sortedRows.get(i).values);
+        }
+        return new CsvPage(index.getHeaders(), rows, offset, total[0]);
+    }
+
+    private void forEachRow(CsvRowIndex index, String filter, Consumer<List<String>> consumer) throws IOException
+    {
+        String lowerCaseFilter = StringUtils.defaultString(filter).toLowerCase();
+        try (Reader reader = Files.newBufferedReader(index.getFile().toPath(), StandardCharsets.UTF_8);
+            CSVParser parser = NORMALIZED_FORMAT.parse(reader))
+        {
+            for (CSVRecord csvRecord : parser) {
+                List<String> row = csvRecord.toList();
+                if (lowerCaseFilter.isEmpty() || matches(row, lowerCaseFilter)) {
+                    consumer.accept(row);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(List<String> row, String lowerCaseFilter)
+    {
+        for (String value : row) {
+            if (value.toLowerCase().contains(lowerCaseFilter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Comparator<IndexedRow> getComparator(int column, boolean descending)
+    {
+        // The numbers are sorted by value before the text values, so that the order stays total on mixed columns.
+        Comparator<String> valueComparator = (first, second) -> {
+            Double firstNumber = toNumber(first);
+            Double secondNumber = toNumber(second);
+            if (firstNumber != null && secondNumber != null) {
+                return Double.compare(firstNumber, secondNumber);
+            } else if (firstNumber != null) {
+                return -1;
+            } else if (secondNumber != null) {
+                return 1;
+            }
+            return String.CASE_INSENSITIVE_ORDER.compare(first, second);
+        };
+        if (descending) {
+            valueComparator = valueComparator.reversed();
+        }
+        // Rows with equal values keep the order of the file.
+        return Comparator.<IndexedRow, String>comparing(row -> row.getValue(column), valueComparator)
+            .thenComparingInt(row -> row.position);
+    }
+
+    private static Double toNumber(String value)
+    {
+        String trimmedValue = value.trim();
+        return NUMBER.matcher(trimmedValue).matches() ? Double.valueOf(trimmedValue) : null;
+    }
+
+    private static final class IndexedRow
+    {
+        private final int position;
+
+        private final List<String> values;
+
+        IndexedRow(int position, List<String> values)
+        {
+            this.position = position;
+            this.values = values;
+        }
+
+        String getValue(int column)
+        {
+            return column < this.values.size() ? this.values.get(column) : "";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.csv;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A CSV file copied to a temporary file in a normalized format, along with the byte offset of every
+ * {@link #INTERVAL}th row, so that any page of rows can be read without parsing the rows before it.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+final class CsvRowIndex
+{
+    /**
+     * The number of rows between two indexed offsets.
+     */
+    static final int INTERVAL = 100;
+
+    private final File file;
+
+    private final List<String> headers;
+
+    private final int rowCount;
+
+    private final long[] offsets;
+
+    CsvRowIndex(File file, List<String> headers, int rowCount, long[] offsets)
+    {
+        this.file = file;
+        this.headers = List.copyOf(headers);
+        this.rowCount = rowCount;
+        this.offsets = offsets;
+    }
+
+    File getFile()
+    {
+        return this.file;
+    }
+
+    List<String> getHeaders()
+    {
+        return this.headers;
+    }
+
+    int getRowCount()
+    {
+        return this.rowCount;
+    }
+
+    /**
+     * @param row the index of a row
+     * @return the byte offset of the closest indexed row before the given row
+     */
+    long getOffset(int row)
+    {
+        return this.offsets[row / INTERVAL];
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidates the {@link ViewFileCapabilityRegistry} when the page of an application used by the View File macro is
+ * created or deleted.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component
+@Named(ViewFileCapabilityListener.HINT)
+@Singleton
+public class ViewFileCapabilityListener extends AbstractEventListener
+{
+    /**
+     * The hint for the component.
+     */
+    public static final String HINT = "ViewFileMacroCapabilityListener";
+
+    @Inject
+    private ViewFileCapabilityRegistry capabilityRegistry;
+
+    /**
+     * Creates an event-listener filtering for DocumentCreatedEvent and DocumentDeletedEvent.
+     */
+    public ViewFileCapabilityListener()
+    {
+        super(HINT, new DocumentCreatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        if (document == null) {
+            return;
+        }
+        DocumentReference documentReference = document.getDocumentReference();
+        if (ViewFileCapabilityRegistry.APPLICATION_REFERENCES.contains(documentReference.getLocalDocumentReference()))
+        {
+            capabilityRegistry.invalidate(documentReference);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Keeps track of the applications used by the View File macro that are installed on each wiki. The existence of their
+ * pages is checked once per wiki and cached until a page is created or deleted, see
+ * {@link ViewFileCapabilityListener}.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ViewFileCapabilityRegistry.class)
+@Singleton
+public class ViewFileCapabilityRegistry
+{
+    /**
+     * The page of the PDF Viewer macro, needed to preview and display PDF files.
+     */
+    public static final LocalDocumentReference PDF_VIEWER_REFERENCE =
+        new LocalDocumentReference(List.of("XWiki"), "PDFViewerMacro");
+
+    /**
+     * The configuration page of the Collabora application, needed to edit office files.
+     */
+    public static final LocalDocumentReference COLLABORA_REFERENCE =
+        new LocalDocumentReference(List.of("Collabora", "Code"), "Configuration");
+
+    /**
+     * The pages checked by this registry.
+     */
+    public static final List<LocalDocumentReference> APPLICATION_REFERENCES =
+        List.of(PDF_VIEWER_REFERENCE, COLLABORA_REFERENCE);
+
+    private final Map<DocumentReference, Boolean> installedApplications = new ConcurrentHashMap<>();
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /**
+     * @return {@code true} if the PDF Viewer macro is installed on the current wiki
+     * @throws XWikiException if the page of the application can't be checked
+     */
+    public boolean hasPdfViewer() throws XWikiException
+    {
+        return isApplicationInstalled(PDF_VIEWER_REFERENCE);
+    }
+
+    /**
+     * @return {@code true} if the Collabora application is installed on the current wiki
+     * @throws XWikiException if the page of the application can't be checked
+     */
+    public boolean hasCollabora() throws XWikiException
+    {
+        return isApplicationInstalled(COLLABORA_REFERENCE);
+    }
+
+    /**
+     * Forget if the application of the given page is installed, so that it is checked again on next use.
+     *
+     * @param documentReference the reference of a created or deleted page
+     */
+    public void invalidate(DocumentReference documentReference)
+    {
+        this.installedApplications.remove(documentReference);
+    }
+
+    private boolean isApplicationInstalled(LocalDocumentReference localDocumentReference) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        DocumentReference applicationReference =
+            new DocumentReference(localDocumentReference, context.getWikiReference());
+        try {
+            // The check is done atomically so that an invalidation happening meanwhile can't be overwritten by the
+            // value it invalidates.
+            return this.installedApplications.computeIfAbsent(applicationReference, reference -> {
+                try {
+                    return exists(reference, context);
+                } catch (XWikiException e) {
+                    throw new ApplicationCheckException(e);
+                }
+            });
+        } catch (ApplicationCheckException e) {
+            throw e.getCause();
+        }
+    }
+
+    private boolean exists(DocumentReference documentReference, XWikiContext context) throws XWikiException
+    {
+        return context.getWiki().exists(documentReference, context);
+    }
+
+    /**
+     * Carries the failure of an application check out of {@link Map#computeIfAbsent}.
+     */
+    private static final class ApplicationCheckException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ApplicationCheckException(XWikiException cause)
+        {
+            super(cause);
+        }
+
+        @Override
+        public synchronized XWikiException getCause()
+        {
+            return (XWikiException) super.getCause();
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package com.xwiki.macros.viewfile.internal.macro;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -27,10 +28,15 @@ import javax.inject.Singleton;
 import javax.script.ScriptContext;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.localization.ContextualLocalizationManager;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.ImageBlock;
+import org.xwiki.rendering.block.WordBlock;
 import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
 import org.xwiki.script.ScriptContextManager;
 import org.xwiki.template.Template;
 import org.xwiki.template.TemplateManager;
@@ -47,6 +53,8 @@ import com.xpn.xwiki.XWikiContext;
 @Singleton
 public class ViewFileExternalBlockManager
 {
+    private static final String CLASS = "class";
+
     @Inject
     private TemplateManager templateManager;
 
@@ -56,6 +64,9 @@ public class ViewFileExternalBlockManager
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    @Inject
+    private ContextualLocalizationManager contextLocalization;
+
     /**
      * Returns the block that is used for displaying a generic thumbnail.
      *
@@ -80,6 +91,31 @@ public class ViewFileExternalBlockManager
         return this.templateManager.execute(customTemplate).getChildren().get(0);
     }
 
+    /**
+     * Returns the block displaying a generated thumbnail, with an overlay inviting to preview the file.
+     *
+     * @param thumbnailUrl the URL of the thumbnail
+     * @param isInline {@code true} if the thumbnail is displayed inline
+     * @return a block that represents the thumbnail
+     * @since 1.31.3
+     */
+    public Block getThumbnailBlock(String thumbnailUrl, boolean isInline)
+    {
+        String imageAltTranslation =
+            contextLocalization.getTranslationPlain("rendering.macro.viewFile.thumbnail.button.image.alt");
+        String overlayTextTranslation =
+            contextLocalization.getTranslationPlain("rendering.macro.viewFile.thumbnail.button.overlay");
+        ResourceReference reference = new ResourceReference(thumbnailUrl, ResourceType.URL);
+        Block imageBlock =
+            new ImageBlock(reference, false, Map.of(CLASS, "viewfile-thumbnail-image", "alt", imageAltTranslation));
+        Block overlayText =
+            new FormatBlock(List.of(new WordBlock(overlayTextTranslation)), Format.NONE, Map.of(CLASS, "overlay-text"));
+        Block overlay =
+            StaticBlockWrapperFactory.constructBlockWrapper(isInline, List.of(overlayText), Map.of(CLASS, "overlay"));
+        return StaticBlockWrapperFactory.constructBlockWrapper(isInline, List.of(imageBlock, overlay),
+            Map.of(CLASS, "image-container"));
+    }
+
     /**
      * Handles the creation of the Collabora blocks.
      *
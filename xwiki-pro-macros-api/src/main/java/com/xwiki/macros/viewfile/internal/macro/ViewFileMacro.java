@@ -38,7 +38,6 @@ import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.security.authorization.Right;
 
 import com.xwiki.macros.AbstractProMacro;
-import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
 import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
 
 /**
@@ -59,9 +58,6 @@ public class ViewFileMacro extends AbstractProMacro<ViewFileMacroParameters>
     @Named("current")
     private AttachmentReferenceResolver<String> attachmentReferenceResolver;
 
-    @Inject
-    private AttachmentSizeValidator attachmentSizeValidator;
-
     @Inject
     private ViewFileMacroPrepareBlocks viewFileMacroPrepareBlocks;
 
@@ -87,10 +83,10 @@ public class ViewFileMacro extends AbstractProMacro<ViewFileMacroParameters>
             if (!contextualAuthorization.hasAccess(Right.VIEW, attachmentRef)) {
                 return viewFileMacroPrepareBlocks.errorMessage(context, "rendering.macro.viewFile.norights");
             }
-            boolean oversize = attachmentSizeValidator.isAttachmentOversize(attachmentRef);
+            // The size of the attachment is checked by the async renderers, only when it changes the display.
             return List.of(StaticBlockWrapperFactory.constructBlockWrapper(context.isInline(),
-                viewFileMacroPrepareBlocks.prepareBlocks(parameters, context, attachmentRef, oversize,
-                    isEditMode(context)), new HashMap<>()));
+                viewFileMacroPrepareBlocks.prepareBlocks(parameters, context, attachmentRef, isEditMode(context)),
+                new HashMap<>()));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -27,16 +27,12 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.localization.ContextualLocalizationManager;
 import org.xwiki.model.reference.AttachmentReference;
-import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.model.reference.LocalDocumentReference;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.FormatBlock;
 import org.xwiki.rendering.block.LinkBlock;
@@ -49,16 +45,17 @@ import org.xwiki.rendering.listener.reference.ResourceType;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.transformation.MacroTransformationContext;
 
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.internal.macro.async.MacroAsyncManager;
 import com.xwiki.macros.viewfile.internal.macro.async.ViewFileAsyncFullRenderer;
 import com.xwiki.macros.viewfile.internal.macro.async.ViewFileAsyncThumbnailRenderer;
-import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+import com.xwiki.macros.viewfile.internal.macro.async.ViewFileThumbnailBatchRenderer;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGeneratorManager;
 import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
 
 /**
- * Handles the preparation of the rendering blocks.
+ * Handles the preparation of the rendering blocks, following the {@link ViewFileRenderPlan} of the macro. This
+ * component holds no rendering state, so it can be used by concurrent renderings.
  *
  * @version $Id$
  * @since 1.27
@@ -100,22 +97,10 @@ public class ViewFileMacroPrepareBlocks
      */
     public static final Set<String> PRESENTATION_FILE_EXTENSIONS = Set.of(PPT, PPTX, ODP);
 
-    private static final LocalDocumentReference PDF_VIEWER_REFERENCE =
-        new LocalDocumentReference(List.of("XWiki"), "PDFViewerMacro");
-
-    private static final LocalDocumentReference COLLABORA_REFERENCE =
-        new LocalDocumentReference(List.of("Collabora", "Code"), "Configuration");
-
-    private static final String PDF = "pdf";
-
     private static final String DOWNLOAD = "download";
 
     private static final String ERROR_MACRO_ID = "error";
 
-    private boolean isOversize;
-
-    private boolean inEditMode;
-
     @Inject
     private ViewFileExternalBlockManager viewFileExternalBlockManager;
 
@@ -125,15 +110,24 @@ public class ViewFileMacroPrepareBlocks
     @Inject
     private ContextualLocalizationManager contextLocalization;
 
-    @Inject
-    private Provider<XWikiContext> contextProvider;
-
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
 
     @Inject
     private MacroAsyncManager asyncManager;
 
+    @Inject
+    private ViewFileRenderPlanner renderPlanner;
+
+    @Inject
+    private ViewFileThumbnailBatchRenderer thumbnailBatchRenderer;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    @Inject
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
     /**
      * Prepares the blocks of the view file macro.
      *
@@ -141,21 +135,29 @@ public class ViewFileMacroPrepareBlocks
      * @param context transformation context of the macro
      * @param inEditMode true if the macro is in edit mode, false otherwise
      * @param attachmentReference reference of the file that should be displayed
-     * @param isOversize if the file is too big and should not be displayed in full view.
      * @return a list of blocks that will render the macro.
      */
     public List<Block> prepareBlocks(ViewFileMacroParameters parameters, MacroTransformationContext context,
-        AttachmentReference attachmentReference, boolean isOversize, boolean inEditMode) throws Exception
+        AttachmentReference attachmentReference, boolean inEditMode) throws Exception
     {
         viewFileResourceManager.injectBaseResources();
-        this.isOversize = isOversize;
-        this.inEditMode = inEditMode;
 
-        if (parameters.getDisplay() == ViewFileDisplay.full) {
-            return prepareFullDisplay(parameters, context, attachmentReference.getName(), attachmentReference);
-        }
+        return prepareBlocks(renderPlanner.getPlan(parameters, attachmentReference, context.isInline(), inEditMode));
+    }
 
-        return prepareCompactDisplay(parameters, context, attachmentReference.getName(), attachmentReference);
+    /**
+     * Prepares the card displayed instead of the full view of a file that is too big to be displayed, with the mime
+     * type icon instead of the thumbnail and without preview.
+     *
+     * @param parameters view file macro parameters
+     * @param attachmentReference reference of the file that should be displayed
+     * @return a list of blocks that will render the card
+     * @since 1.31.3
+     */
+    public List<Block> prepareOversizeDisplay(ViewFileMacroParameters parameters,
+        AttachmentReference attachmentReference) throws Exception
+    {
+        return prepareBlocks(renderPlanner.getOversizePlan(parameters, attachmentReference));
     }
 
     /**
@@ -172,131 +174,67 @@ public class ViewFileMacroPrepareBlocks
         return List.of(new MacroBlock(ERROR_MACRO_ID, new HashMap<>(), message, context.isInline()));
     }
 
-    private List<Block> prepareCompactDisplay(ViewFileMacroParameters parameters, MacroTransformationContext context,
-        String fileName, AttachmentReference attachmentReference) throws Exception
+    private List<Block> prepareBlocks(ViewFileRenderPlan plan) throws Exception
     {
-        String fileExtension = getFileExtension(fileName);
-        applyPresentationResourcesIfNeeded(fileExtension);
-
-        boolean hasPreview = hasPreview(fileExtension);
-        ViewFileDisplay displayType = parameters.getDisplay();
-        boolean forceCardView = shouldForceCardView(displayType, context.isInline());
-        boolean inLineElement = inEditMode || context.isInline();
-
-        String style = "";
-        StringBuilder stringBuilder = new StringBuilder();
-
-        if (StringUtils.isNotBlank(parameters.getWidth())) {
-            stringBuilder.append(String.format(" width:%s;", parameters.getWidth()));
-        }
-
-        if (StringUtils.isNotBlank(parameters.getHeight())) {
-            stringBuilder.append(String.format(" height:%s;", parameters.getHeight()));
+        if (plan.isFullView()) {
+            String asyncBlock = asyncManager.getViewFileAsyncBlock(plan.getAttachmentReference(), false,
+                plan.getFullViewParameters(), "div", ViewFileAsyncFullRenderer.HINT);
+            return List.of(new RawBlock(asyncBlock, Syntax.XHTML_1_0));
         }
+        // Fallback on the thumbnail if the file can't be displayed in full, or not in the current context.
+        return prepareCompactDisplay(plan);
+    }
 
-        if (stringBuilder.length() > 0) {
-            style = stringBuilder.toString();
-        } else if (forceCardView && inEditMode) {
-            style = "width: min-content; min-height: min-content;";
-        }
+    private List<Block> prepareCompactDisplay(ViewFileRenderPlan plan) throws Exception
+    {
+        AttachmentReference attachmentReference = plan.getAttachmentReference();
+        applyPresentationResourcesIfNeeded(plan.getFileExtension());
 
         // False == card, true == Button
-        boolean thumbnailStyle = ViewFileDisplay.button == displayType;
+        boolean thumbnailStyle = plan.isButton();
         String thumbnailType = thumbnailStyle ? "Button" : "Card";
         String buttonClass = thumbnailStyle ? "button button-primary" : "";
 
         Map<String, String> rootElementParameters =
-            Map.of(CLASS, String.format("viewFileThumbnail viewFileThumbnail%s", thumbnailType), STYLE, style,
-                "data-preview", Boolean.toString(hasPreview), "data-ref",
+            Map.of(CLASS, String.format("viewFileThumbnail viewFileThumbnail%s", thumbnailType), STYLE,
+                plan.getStyle(), "data-preview", Boolean.toString(plan.hasPreview()), "data-ref",
                 referenceSerializer.serialize(attachmentReference));
 
         Map<String, String> linkElementParameters = Map.of(DOWNLOAD, DOWNLOAD, CLASS, buttonClass, "title",
             contextLocalization.getTranslationPlain("rendering.macro.viewFile.thumbnail.button.title"));
 
-        List<Block> innerContainer = getFileDisplayBlocks(thumbnailStyle, inLineElement, attachmentReference);
+        List<Block> innerContainer = getFileDisplayBlocks(plan, plan.isInEditMode() || plan.isInline());
         ResourceReference reference =
             new ResourceReference(referenceSerializer.serialize(attachmentReference), ResourceType.ATTACHMENT);
         Block linkBlock = new LinkBlock(innerContainer, reference, false, linkElementParameters);
         List<Block> innerBlocks = new ArrayList<>();
         innerBlocks.add(linkBlock);
 
-        // Check if Collabora is present.
-        if (isApplicationInstalled(COLLABORA_REFERENCE)) {
+        if (plan.hasCollabora()) {
             Block collaboraBlock = viewFileExternalBlockManager.getCollaboraBlock();
             innerBlocks.add(collaboraBlock);
         }
         Block wrapperBlock =
-            StaticBlockWrapperFactory.constructBlockWrapper(context.isInline(), innerBlocks, rootElementParameters);
+            StaticBlockWrapperFactory.constructBlockWrapper(plan.isInline(), innerBlocks, rootElementParameters);
         return List.of(wrapperBlock);
     }
 
     private Block getImageThumbnail(AttachmentReference attachmentReference, boolean isSpan) throws Exception
     {
+        // The thumbnail of the current version was already generated, so there is nothing to wait for.
+        String thumbnailUrl = thumbnailGeneratorManager.getExistingThumbnailUrl(attachmentReference);
+        if (thumbnailUrl != null) {
+            return viewFileExternalBlockManager.getThumbnailBlock(thumbnailUrl, isSpan);
+        }
+        if (configuration.isThumbnailBatchEnabled()) {
+            // The thumbnails of the page are loaded together by the browser.
+            return new RawBlock(thumbnailBatchRenderer.getPlaceholder(attachmentReference, isSpan), Syntax.XHTML_1_0);
+        }
         String asyncBlock = asyncManager.getViewFileAsyncBlock(attachmentReference, isSpan, Map.of(), "span",
             ViewFileAsyncThumbnailRenderer.HINT);
         return new RawBlock(asyncBlock, Syntax.XHTML_1_0);
     }
 
-    private List<Block> prepareFullDisplay(ViewFileMacroParameters parameters, MacroTransformationContext context,
-        String fileName, AttachmentReference attachmentReference) throws Exception
-    {
-        if (inEditMode || isOversize || context.isInline()) {
-            // If we are in edit, the file is too big to be displayed or the macro is inline we just show the thumbnail.
-            return prepareCompactDisplay(parameters, context, fileName, attachmentReference);
-        }
-        String fileExtension = getFileExtension(fileName);
-
-        if (OFFICE_FILE_EXTENSIONS.contains(fileExtension)
-                || CSV_FILE_EXTENSIONS.contains(fileExtension)
-                || (fileExtension.equals(PDF) && isApplicationInstalled(PDF_VIEWER_REFERENCE)))
-        {
-            Map<String, String> renderParameters = Map.of(
-                    "width", parameters.getWidth(),
-                    "height", parameters.getHeight(),
-                    "fileExtension", fileExtension,
-                    "csvFormat", parameters.getCSVFormat(),
-                    "csvDelimiter", parameters.getCSVDelimiter(),
-                    "csvFirstLineIsHeader", Boolean.toString(parameters.getCSVFirstLineIsHeader())
-            );
-
-            String asyncBlock = asyncManager.getViewFileAsyncBlock(attachmentReference, false, renderParameters, "div",
-                ViewFileAsyncFullRenderer.HINT);
-            return List.of(new RawBlock(asyncBlock, Syntax.XHTML_1_0));
-        }
-        // Fallback if the file extension is not a known one.
-        return prepareCompactDisplay(parameters, context, fileName, attachmentReference);
-    }
-
-    private boolean isApplicationInstalled(LocalDocumentReference localDocumentReference) throws XWikiException
-    {
-        XWikiContext context = contextProvider.get();
-        DocumentReference viewerWikiRef = new DocumentReference(localDocumentReference, context.getWikiReference());
-        return context.getWiki().exists(viewerWikiRef, context);
-    }
-
-    private String getFileExtension(String fileName)
-    {
-        return fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
-    }
-
-    private boolean hasPreview(String fileExtension) throws XWikiException
-    {
-        if (fileExtension.equals(PDF) && isApplicationInstalled(PDF_VIEWER_REFERENCE)) {
-            return true;
-        }
-
-        if (isOversize) {
-            return false;
-        }
-
-        return OFFICE_FILE_EXTENSIONS.contains(fileExtension) || CSV_FILE_EXTENSIONS.contains(fileExtension);
-    }
-
-    private boolean shouldForceCardView(ViewFileDisplay display, boolean context)
-    {
-        return display == ViewFileDisplay.thumbnail || display == ViewFileDisplay.full || display == null && !context;
-    }
-
     private void applyPresentationResourcesIfNeeded(String fileExtension)
     {
         if (PRESENTATION_FILE_EXTENSIONS.contains(fileExtension)) {
@@ -304,23 +242,21 @@ public class ViewFileMacroPrepareBlocks
         }
     }
 
-    private List<Block> getFileDisplayBlocks(boolean thumbnailStyle, boolean isSpan,
-        AttachmentReference attachmentReference) throws Exception
+    private List<Block> getFileDisplayBlocks(ViewFileRenderPlan plan, boolean isSpan) throws Exception
     {
-        Block thumbunalBlock = getThumbnail(thumbnailStyle, attachmentReference, isSpan);
-        Block titleTextBlock = new WordBlock(attachmentReference.getName());
+        Block thumbunalBlock = getThumbnail(plan, isSpan);
+        Block titleTextBlock = new WordBlock(plan.getAttachmentReference().getName());
         Block titleBlock = new FormatBlock(List.of(titleTextBlock), Format.NONE, Map.of(CLASS, "viewFileName"));
         return List.of(thumbunalBlock, titleBlock);
     }
 
-    private Block getThumbnail(boolean thumbnailStyle, AttachmentReference attachmentReference, boolean isSpan)
-        throws Exception
-
+    private Block getThumbnail(ViewFileRenderPlan plan, boolean isSpan) throws Exception
     {
-        if (!isOversize && !thumbnailStyle) {
-            return getImageThumbnail(attachmentReference, isSpan);
+        boolean thumbnailStyle = plan.isButton();
+        if (!plan.isOversize() && !thumbnailStyle) {
+            return getImageThumbnail(plan.getAttachmentReference(), isSpan);
         }
         // Generic thumbnail.
-        return viewFileExternalBlockManager.getMimeTypeBlock(attachmentReference, thumbnailStyle || isSpan);
+        return viewFileExternalBlockManager.getMimeTypeBlock(plan.getAttachmentReference(), thumbnailStyle || isSpan);
     }
 }
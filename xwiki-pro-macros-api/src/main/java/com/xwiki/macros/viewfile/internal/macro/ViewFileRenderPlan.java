@@ -0,0 +1,310 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import java.util.Map;
+
+import org.xwiki.model.reference.AttachmentReference;
+
+import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+
+/**
+ * The decisions taken to render a View File macro: how the file is displayed, if it can be previewed and which
+ * actions are available. A plan is built for each macro from its parameters, the rendering context (inline display,
+ * edit mode) and the installed applications, without loading the attachment.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public final class ViewFileRenderPlan
+{
+    private final AttachmentReference attachmentReference;
+
+    private final String fileExtension;
+
+    private final ViewFileDisplay display;
+
+    private final boolean inline;
+
+    private final boolean inEditMode;
+
+    private final boolean oversize;
+
+    private final boolean preview;
+
+    private final boolean collabora;
+
+    private final boolean fullView;
+
+    private final String style;
+
+    private final Map<String, String> fullViewParameters;
+
+    private ViewFileRenderPlan(Builder builder)
+    {
+        this.attachmentReference = builder.attachmentReference;
+        this.fileExtension = builder.fileExtension;
+        this.display = builder.display;
+        this.inline = builder.inline;
+        this.inEditMode = builder.inEditMode;
+        this.oversize = builder.oversize;
+        this.preview = builder.preview;
+        this.collabora = builder.collabora;
+        this.fullView = builder.fullView;
+        this.style = builder.style;
+        this.fullViewParameters = builder.fullViewParameters;
+    }
+
+    /**
+     * @return the reference of the displayed file
+     */
+    public AttachmentReference getAttachmentReference()
+    {
+        return this.attachmentReference;
+    }
+
+    /**
+     * @return the lower case extension of the displayed file
+     */
+    public String getFileExtension()
+    {
+        return this.fileExtension;
+    }
+
+    /**
+     * @return the display requested by the macro parameters
+     */
+    public ViewFileDisplay getDisplay()
+    {
+        return this.display;
+    }
+
+    /**
+     * @return {@code true} if the macro is rendered inline
+     */
+    public boolean isInline()
+    {
+        return this.inline;
+    }
+
+    /**
+     * @return {@code true} if the macro is rendered for the WYSIWYG editor
+     */
+    public boolean isInEditMode()
+    {
+        return this.inEditMode;
+    }
+
+    /**
+     * @return {@code true} if the file is too big to be previewed, in which case the mime type icon is displayed
+     *     instead of the thumbnail
+     */
+    public boolean isOversize()
+    {
+        return this.oversize;
+    }
+
+    /**
+     * @return {@code true} if the file can be previewed in a modal
+     */
+    public boolean hasPreview()
+    {
+        return this.preview;
+    }
+
+    /**
+     * @return {@code true} if the file can be edited with Collabora
+     */
+    public boolean hasCollabora()
+    {
+        return this.collabora;
+    }
+
+    /**
+     * @return {@code true} if the content of the file is displayed by the async full renderer, {@code false} if a
+     *     card or a button is displayed
+     */
+    public boolean isFullView()
+    {
+        return this.fullView;
+    }
+
+    /**
+     * @return {@code true} if the file is displayed as a button, {@code false} if it is displayed as a card
+     */
+    public boolean isButton()
+    {
+        return this.display == ViewFileDisplay.button;
+    }
+
+    /**
+     * @return the inline style of the card or button
+     */
+    public String getStyle()
+    {
+        return this.style;
+    }
+
+    /**
+     * @return the parameters of the async full renderer, empty if the file is not displayed in full
+     */
+    public Map<String, String> getFullViewParameters()
+    {
+        return this.fullViewParameters;
+    }
+
+    /**
+     * Builds a {@link ViewFileRenderPlan}.
+     *
+     * @version $Id$
+     * @since 1.31.3
+     */
+    public static final class Builder
+    {
+        private final AttachmentReference attachmentReference;
+
+        private final String fileExtension;
+
+        private ViewFileDisplay display;
+
+        private boolean inline;
+
+        private boolean inEditMode;
+
+        private boolean oversize;
+
+        private boolean preview;
+
+        private boolean collabora;
+
+        private boolean fullView;
+
+        private String style = "";
+
+        private Map<String, String> fullViewParameters = Map.of();
+
+        /**
+         * @param attachmentReference the reference of the displayed file
+         */
+        public Builder(AttachmentReference attachmentReference)
+        {
+            this.attachmentReference = attachmentReference;
+            String name = attachmentReference.getName();
+            this.fileExtension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        }
+
+        /**
+         * @return the lower case extension of the displayed file
+         */
+        public String getFileExtension()
+        {
+            return this.fileExtension;
+        }
+
+        /**
+         * @param display the display requested by the macro parameters
+         * @return this builder
+         */
+        public Builder display(ViewFileDisplay display)
+        {
+            this.display = display;
+            return this;
+        }
+
+        /**
+         * @param inline {@code true} if the macro is rendered inline
+         * @return this builder
+         */
+        public Builder inline(boolean inline)
+        {
+            this.inline = inline;
+            return this;
+        }
+
+        /**
+         * @param inEditMode {@code true} if the macro is rendered for the WYSIWYG editor
+         * @return this builder
+         */
+        public Builder inEditMode(boolean inEditMode)
+        {
+            this.inEditMode = inEditMode;
+            return this;
+        }
+
+        /**
+         * @param oversize {@code true} if the file is too big to be previewed
+         * @return this builder
+         */
+        public Builder oversize(boolean oversize)
+        {
+            this.oversize = oversize;
+            return this;
+        }
+
+        /**
+         * @param preview {@code true} if the file can be previewed in a modal
+         * @return this builder
+         */
+        public Builder preview(boolean preview)
+        {
+            this.preview = preview;
+            return this;
+        }
+
+        /**
+         * @param collabora {@code true} if the file can be edited with Collabora
+         * @return this builder
+         */
+        public Builder collabora(boolean collabora)
+        {
+            this.collabora = collabora;
+            return this;
+        }
+
+        /**
+         * @param fullViewParameters the parameters of the async full renderer, displaying the content of the file
+         * @return this builder
+         */
+        public Builder fullView(Map<String, String> fullViewParameters)
+        {
+            this.fullView = true;
+            this.fullViewParameters = Map.copyOf(fullViewParameters);
+            return this;
+        }
+
+        /**
+         * @param style the inline style of the card or button
+         * @return this builder
+         */
+        public Builder style(String style)
+        {
+            this.style = style;
+            return this;
+        }
+
+        /**
+         * @return the plan
+         */
+        public ViewFileRenderPlan build()
+        {
+            return new ViewFileRenderPlan(this);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.AttachmentReference;
+
+import com.xpn.xwiki.XWikiException;
+import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
+
+import static com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlocks.CSV_FILE_EXTENSIONS;
+import static com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlocks.OFFICE_FILE_EXTENSIONS;
+
+/**
+ * Computes the {@link ViewFileRenderPlan} of the View File macros. A plan only depends on the macro parameters, the
+ * rendering context and the installed applications, so it is computed for each macro without loading the attachment.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ViewFileRenderPlanner.class)
+@Singleton
+public class ViewFileRenderPlanner
+{
+    private static final String PDF = "pdf";
+
+    @Inject
+    private ViewFileCapabilityRegistry capabilityRegistry;
+
+    /**
+     * @param parameters the macro parameters
+     * @param attachmentReference the reference of the displayed file
+     * @param isInline {@code true} if the macro is rendered inline
+     * @param inEditMode {@code true} if the macro is rendered for the WYSIWYG editor
+     * @return the plan of the macro rendering
+     * @throws XWikiException if the installed applications can't be checked
+     */
+    public ViewFileRenderPlan getPlan(ViewFileMacroParameters parameters, AttachmentReference attachmentReference,
+        boolean isInline, boolean inEditMode) throws XWikiException
+    {
+        boolean hasPdfViewer = this.capabilityRegistry.hasPdfViewer();
+        boolean hasCollabora = this.capabilityRegistry.hasCollabora();
+        ViewFileRenderPlan.Builder builder = new ViewFileRenderPlan.Builder(attachmentReference)
+            .display(parameters.getDisplay()).inline(isInline).inEditMode(inEditMode).collabora(hasCollabora);
+        String fileExtension = builder.getFileExtension();
+        boolean isPdf = PDF.equals(fileExtension);
+        boolean isOfficeOrCsv =
+            OFFICE_FILE_EXTENSIONS.contains(fileExtension) || CSV_FILE_EXTENSIONS.contains(fileExtension);
+        builder.preview(isPdf && hasPdfViewer || isOfficeOrCsv);
+
+        // In edit mode or inline, the full display falls back on the thumbnail. The size of the file is checked by the
+        // async full renderer, which falls back on the thumbnail if the file is too big to be displayed.
+        if (parameters.getDisplay() == ViewFileDisplay.full && !inEditMode && !isInline
+            && (isOfficeOrCsv || isPdf && hasPdfViewer))
+        {
+            builder.fullView(Map.of(
+                "width", parameters.getWidth(),
+                "height", parameters.getHeight(),
+                "fileExtension", fileExtension,
+                "csvFormat", parameters.getCSVFormat(),
+                "csvDelimiter", parameters.getCSVDelimiter(),
+                "csvFirstLineIsHeader", Boolean.toString(parameters.getCSVFirstLineIsHeader())
+            ));
+        }
+        return builder.style(getStyle(parameters, isInline, inEditMode)).build();
+    }
+
+    /**
+     * @param parameters the macro parameters
+     * @param attachmentReference the reference of a file that is too big to be displayed
+     * @return the plan of the card displayed instead of the full view of the file, with the mime type icon instead of
+     *     the thumbnail and without preview
+     * @throws XWikiException if the installed applications can't be checked
+     */
+    public ViewFileRenderPlan getOversizePlan(ViewFileMacroParameters parameters,
+        AttachmentReference attachmentReference) throws XWikiException
+    {
+        ViewFileRenderPlan.Builder builder =
+            new ViewFileRenderPlan.Builder(attachmentReference).display(parameters.getDisplay()).oversize(true)
+                .collabora(this.capabilityRegistry.hasCollabora());
+        builder.preview(PDF.equals(builder.getFileExtension()) && this.capabilityRegistry.hasPdfViewer());
+        return builder.style(getStyle(parameters, false, false)).build();
+    }
+
+    private String getStyle(ViewFileMacroParameters parameters, boolean isInline, boolean inEditMode)
+    {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        if (StringUtils.isNotBlank(parameters.getWidth())) {
+            stringBuilder.append(String.format(" width:%s;", parameters.getWidth()));
+        }
+
+        if (StringUtils.isNotBlank(parameters.getHeight())) {
+            stringBuilder.append(String.format(" height:%s;", parameters.getHeight()));
+        }
+
+        if (stringBuilder.length() > 0) {
+            return stringBuilder.toString();
+        } else if (shouldForceCardView(parameters.getDisplay(), isInline) && inEditMode) {
+            return "width: min-content; min-height: min-content;";
+        }
+        return "";
+    }
+
+    private boolean shouldForceCardView(ViewFileDisplay display, boolean context)
+    {
+        return display == ViewFileDisplay.thumbnail || display == ViewFileDisplay.full || display == null && !context;
+    }
+}
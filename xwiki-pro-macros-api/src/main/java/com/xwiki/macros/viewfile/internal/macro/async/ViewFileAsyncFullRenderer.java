@@ -20,11 +20,10 @@
 package com.xwiki.macros.viewfile.internal.macro.async;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,15 +32,15 @@ import javax.inject.Named;
 import javax.inject.Provider;
 import javax.servlet.http.HttpSession;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.rendering.RenderingException;
+import org.xwiki.rendering.async.AsyncContext;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.CompositeBlock;
 import org.xwiki.rendering.block.GroupBlock;
@@ -65,11 +64,17 @@ import org.xwiki.rendering.transformation.TransformationException;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiAttachment;
-import com.xpn.xwiki.doc.XWikiAttachmentContent;
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.web.XWikiRequest;
+import com.xwiki.macros.viewfile.csv.CsvPage;
+import com.xwiki.macros.viewfile.csv.CsvQuery;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.csv.CsvPageReader;
 import com.xwiki.macros.viewfile.internal.macro.ViewFileMacro;
+import com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlocks;
+import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
 import com.xwiki.macros.viewfile.macro.async.AbstractViewFileAsyncRenderer;
 import com.xwiki.pdfviewer.macro.PDFViewerMacroParameters;
 
@@ -80,7 +85,9 @@ import static com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlock
 import static com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlocks.STYLE;
 
 /**
- * Async renderer for generating the full view display {@link Block} for {@link ViewFileMacro}.
+ * Async renderer for generating the full view display {@link Block} for {@link ViewFileMacro}. Office files that are
+ * too big to be converted are displayed as a card instead. The result is cached per attachment version and rendering
+ * parameters, and invalidated when the document holding the attachment is modified.
  *
  * @version $Id$
  * @since 1.29.0
@@ -137,6 +144,8 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
 
     private String csvFormat;
 
+    private boolean cacheAllowed;
+
     @Inject
     private ComponentManager componentManager;
 
@@ -147,6 +156,27 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
     @Named("plain/1.0")
     private Parser plainTextParser;
 
+    @Inject
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @Inject
+    private ViewFileMacroPrepareBlocks viewFileMacroPrepareBlocks;
+
+    @Inject
+    private AttachmentVersionProvider attachmentVersionProvider;
+
+    @Inject
+    private AsyncContext asyncContext;
+
+    @Inject
+    private CsvPageReader csvPageReader;
+
+    @Inject
+    private ViewFileConfiguration viewFileConfiguration;
+
+    @Inject
+    private Logger logger;
+
     @Override
     public void initialize(MacroTransformationContext context, AttachmentReference attachmentReference,
         Map<String, String> parameters)
@@ -164,8 +194,13 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
         this.csvFirstLineIsHeader = Boolean.parseBoolean(parameters.getOrDefault("csvFirstLineIsHeader", "true"));
         this.csvDelimiter = parameters.get("csvDelimiter");
         this.csvFormat = parameters.get("csvFormat");
-        id =
-            createId("rendering", "macro", "viewfile", HINT, String.valueOf(attachmentReference.toString().hashCode()));
+        String versionKey = getVersionKey();
+        // The result is cached per attachment version and rendering parameters. Without a version, it is not cached.
+        this.cacheAllowed = versionKey != null;
+        id = createId("rendering", "macro", "viewfile", HINT, referenceSerializer.serialize(attachmentReference),
+            StringUtils.defaultString(versionKey), this.width, this.height,
+            StringUtils.defaultString(this.fileExtension), StringUtils.defaultString(this.csvFormat),
+            StringUtils.defaultString(this.csvDelimiter), Boolean.toString(this.csvFirstLineIsHeader));
     }
 
     @Override
@@ -195,12 +230,15 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
     @Override
     public boolean isCacheAllowed()
     {
-        return true;
+        return this.cacheAllowed;
     }
 
     @Override
     protected Block execute(boolean async, boolean cached) throws RenderingException
     {
+        // Invalidate the cached result when the document holding the attachment is modified, e.g. when the
+        // attachment is updated or deleted.
+        asyncContext.useEntity(attachmentReference.getDocumentReference());
         try {
             List<Block> result = prepareFullDisplay();
             renderingTransform(result.get(0));
@@ -212,6 +250,17 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
         }
     }
 
+    private String getVersionKey()
+    {
+        try {
+            return attachmentVersionProvider.getVersionKey(attachmentReference);
+        } catch (XWikiException e) {
+            logger.warn("Failed to get the version of [{}], its full view won't be cached. Root cause is: [{}]",
+                attachmentReference, ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
     /**
      * This transformation is needed because the renderer expects a HTML type block; otherwise the content will be
      * dropped.
@@ -238,6 +287,9 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
     private List<Block> prepareFullDisplay() throws Exception
     {
         if (OFFICE_FILE_EXTENSIONS.contains(fileExtension)) {
+            if (attachmentSizeValidator.isAttachmentOversize(attachmentReference)) {
+                return prepareOversizeCard();
+            }
             return prepareOfficeFile();
         }
 
@@ -254,46 +306,50 @@ public class ViewFileAsyncFullRenderer extends AbstractViewFileAsyncRenderer
 
     private List<Block> prepareCSV() throws IOException, XWikiException, ParseException
     {
-        CSVFormat format = CSVFormat.DEFAULT;
-        if (StringUtils.isNotEmpty(this.csvFormat)) {
-            format = CSVFormat.valueOf(this.csvFormat);
-        }
-
-        CSVFormat.Builder builder = format.builder().setTrim(true);
-        if (StringUtils.isNotEmpty(this.csvDelimiter)) {
-            builder = builder.setDelimiter(this.csvDelimiter);
-        } else if ("tsv".equals(this.fileExtension)) {
-            builder = builder.setDelimiter("\t");
-        }
+        // Only the first page is rendered, the next ones are loaded by the browser.
+        CsvQuery query = new CsvQuery();
+        query.setFormat(this.csvFormat);
+        query.setDelimiter(this.csvDelimiter);
+        query.setFirstLineIsHeader(this.csvFirstLineIsHeader);
+        query.setLimit(viewFileConfiguration.getCsvPageSize());
+        CsvPage page = csvPageReader.getPage(attachmentReference, query);
 
-        if (this.csvFirstLineIsHeader) {
-            builder.setHeader().setSkipHeaderRecord(true);
-        }
-        XWikiContext context = wikiContextProvider.get();
-        XWikiDocument attachDoc = context.getWiki().getDocument(attachmentReference.getDocumentReference(), context);
-        XWikiAttachment attachment = attachDoc.getAttachment(attachmentReference.getName());
-        XWikiAttachmentContent attachmentContent = attachment.getAttachmentContent(context);
-        InputStream attachmentContentIS = attachmentContent.getContentInputStream();
-        CSVParser parser = builder.build().parse(new InputStreamReader(attachmentContentIS));
-        List<String> headerNames = parser.getHeaderNames();
         List<Block> rows = new ArrayList<>();
-        if (!headerNames.isEmpty()) {
-            List<Block> headers = new ArrayList<>(headerNames.size());
-            for (String header : headerNames) {
+        if (!page.getHeaders().isEmpty()) {
+            List<Block> headers = new ArrayList<>(page.getHeaders().size());
+            for (String header : page.getHeaders()) {
                 headers.add(new TableHeadCellBlock(plainTextParser.parse(new StringReader(header)).getChildren()));
             }
             rows.add(new TableRowBlock(headers));
         }
 
-        for (CSVRecord rec : parser) {
-            List<Block> cells = new ArrayList<>(rec.size());
-            for (String val : rec) {
+        for (List<String> row : page.getRows()) {
+            List<Block> cells = new ArrayList<>(row.size());
+            for (String val : row) {
                 cells.add(new TableCellBlock(plainTextParser.parse(new StringReader(val)).getChildren()));
             }
 
             rows.add(new TableRowBlock(cells));
         }
-        return wrapWithFullViewFormat(List.of(new TableBlock(rows)));
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put(CLASS, "viewfile-csv");
+        parameters.put("data-ref", referenceSerializer.serialize(attachmentReference));
+        parameters.put("data-total", Integer.toString(page.getTotal()));
+        parameters.put("data-page-size", Integer.toString(viewFileConfiguration.getCsvPageSize()));
+        parameters.put("data-csv-format", StringUtils.defaultString(this.csvFormat));
+        parameters.put("data-csv-delimiter", StringUtils.defaultString(this.csvDelimiter));
+        parameters.put("data-csv-header", Boolean.toString(this.csvFirstLineIsHeader));
+        return wrapWithFullViewFormat(List.of(new GroupBlock(List.of(new TableBlock(rows)), parameters)));
+    }
+
+    private List<Block> prepareOversizeCard() throws Exception
+    {
+        ViewFileMacroParameters parameters = new ViewFileMacroParameters();
+        parameters.setDisplay(ViewFileDisplay.full);
+        // Keep the size requested for the full view, the default size of the card otherwise.
+        parameters.setWidth(this.width);
+        parameters.setHeight(this.height);
+        return viewFileMacroPrepareBlocks.prepareOversizeDisplay(parameters, attachmentReference);
     }
 
     private List<Block> prepareOfficeFile() throws Exception
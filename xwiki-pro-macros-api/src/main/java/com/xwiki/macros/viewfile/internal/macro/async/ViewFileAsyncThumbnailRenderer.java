@@ -26,21 +26,14 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.localization.ContextualLocalizationManager;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.rendering.RenderingException;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.CompositeBlock;
-import org.xwiki.rendering.block.FormatBlock;
-import org.xwiki.rendering.block.ImageBlock;
-import org.xwiki.rendering.block.WordBlock;
-import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.listener.reference.ResourceReference;
-import org.xwiki.rendering.listener.reference.ResourceType;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.transformation.MacroTransformationContext;
 
-import com.xwiki.macros.viewfile.internal.macro.StaticBlockWrapperFactory;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
 import com.xwiki.macros.viewfile.internal.macro.ViewFileExternalBlockManager;
 import com.xwiki.macros.viewfile.internal.macro.ViewFileMacro;
 import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGeneratorManager;
@@ -61,17 +54,15 @@ public class ViewFileAsyncThumbnailRenderer extends AbstractViewFileAsyncRendere
      */
     public static final String HINT = "thumbnail";
 
-    private static final String CLASS = "class";
-
-    @Inject
-    private ContextualLocalizationManager contextLocalization;
-
     @Inject
     private ThumbnailGeneratorManager thumbnailGeneratorManager;
 
     @Inject
     private ViewFileExternalBlockManager viewFileExternalBlockManager;
 
+    @Inject
+    private AttachmentSizeValidator attachmentSizeValidator;
+
     private AttachmentReference attachmentReference;
 
     private boolean isInline;
@@ -134,27 +125,16 @@ public class ViewFileAsyncThumbnailRenderer extends AbstractViewFileAsyncRendere
 
     private Block getImageThumbnail(AttachmentReference attachmentReference) throws Exception
     {
+        // The files that are too big to be converted are displayed with their mime type icon.
+        if (thumbnailGeneratorManager.isSupported(attachmentReference.getName())
+            && attachmentSizeValidator.isAttachmentOversize(attachmentReference))
+        {
+            return viewFileExternalBlockManager.getMimeTypeBlock(attachmentReference, isInline);
+        }
         String thumbnailUrl = thumbnailGeneratorManager.getThumbnailUrl(attachmentReference);
         if (thumbnailUrl.isEmpty()) {
             return viewFileExternalBlockManager.getMimeTypeBlock(attachmentReference, isInline);
         }
-        return getThumbnailBlock(thumbnailUrl);
-    }
-
-    private Block getThumbnailBlock(String thumbnailUrl)
-    {
-        String imageAltTranslation =
-            contextLocalization.getTranslationPlain("rendering.macro.viewFile.thumbnail.button.image.alt");
-        String overlayTextTranslation =
-            contextLocalization.getTranslationPlain("rendering.macro.viewFile.thumbnail.button.overlay");
-        ResourceReference reference = new ResourceReference(thumbnailUrl, ResourceType.URL);
-        Block imageBlock =
-            new ImageBlock(reference, false, Map.of(CLASS, "viewfile-thumbnail-image", "alt", imageAltTranslation));
-        Block overlayText =
-            new FormatBlock(List.of(new WordBlock(overlayTextTranslation)), Format.NONE, Map.of(CLASS, "overlay-text"));
-        Block overlay =
-            StaticBlockWrapperFactory.constructBlockWrapper(isInline, List.of(overlayText), Map.of(CLASS, "overlay"));
-        return StaticBlockWrapperFactory.constructBlockWrapper(isInline, List.of(imageBlock, overlay),
-            Map.of(CLASS, "image-container"));
+        return viewFileExternalBlockManager.getThumbnailBlock(thumbnailUrl, isInline);
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro.async;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.xml.XMLUtils;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.macro.ViewFileExternalBlockManager;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGeneratorManager;
+
+/**
+ * Resolves all the thumbnails of a page at once. Instead of starting an async rendering job for each card, the macro
+ * displays a placeholder and starts the thumbnail generation in the background; once the page is loaded, the browser
+ * asks for all the placeholders of the page with a single request, which waits for the generations together.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ViewFileThumbnailBatchRenderer.class)
+@Singleton
+public class ViewFileThumbnailBatchRenderer
+{
+    /**
+     * The CSS class of the thumbnail placeholders filled by the browser.
+     */
+    public static final String PLACEHOLDER_CLASS = "viewfile-thumbnail-pending";
+
+    private static final String EMPTY_STRING = "";
+
+    @Inject
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @Inject
+    private ViewFileExternalBlockManager viewFileExternalBlockManager;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    @Inject
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    @Inject
+    @Named("xhtml/1.0")
+    private BlockRenderer xhtmlRenderer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Start the generation of the thumbnail of the given attachment and return the placeholder filled by the browser
+     * once the page is loaded. The placeholder displays the mime type icon of the file until then, which is kept if the
+     * thumbnail can't be loaded. In lazy mode, the generation only starts when the browser asks for the thumbnail, once
+     * the placeholder nears the viewport.
+     *
+     * @param attachmentReference the reference of the attachment
+     * @param isInline {@code true} if the thumbnail is displayed inline
+     * @return the HTML of the placeholder
+     */
+    public String getPlaceholder(AttachmentReference attachmentReference, boolean isInline)
+    {
+        boolean isLazy = this.configuration.isThumbnailLazyLoadingEnabled();
+        // The generation progresses while the browser loads the page. The size of the file is checked by the
+        // generation itself, so that it doesn't delay the rendering of the page.
+        if (!isLazy && this.thumbnailGeneratorManager.isSupported(attachmentReference.getName())) {
+            try {
+                this.thumbnailGeneratorManager.scheduleThumbnail(attachmentReference);
+            } catch (Exception e) {
+                // The generation is scheduled again when the browser asks for the thumbnail.
+                this.logger.debug("Failed to schedule the thumbnail generation of [{}]. Root cause is: [{}]",
+                    attachmentReference, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        return String.format("<span class=\"%s\" data-ref=\"%s\" data-inline=\"%s\" data-lazy=\"%s\">%s</span>",
+            PLACEHOLDER_CLASS, XMLUtils.escapeAttributeValue(this.referenceSerializer.serialize(attachmentReference)),
+            isInline, isLazy, getFallback(attachmentReference, isInline));
+    }
+
+    /**
+     * Render the thumbnails of the given attachments, waiting for their generations together. The thumbnails that
+     * can't be generated, or not in time, are displayed with the mime type icon of the file.
+     *
+     * @param attachmentReferences the references of the attachments, which must be viewable by the current user
+     * @param isInline {@code true} if the thumbnails are displayed inline
+     * @return the HTML of the thumbnails, indexed by attachment
+     */
+    public Map<AttachmentReference, String> render(Collection<AttachmentReference> attachmentReferences,
+        boolean isInline)
+    {
+        Map<AttachmentReference, CompletableFuture<String>> generations = new LinkedHashMap<>();
+        for (AttachmentReference attachmentReference : attachmentReferences) {
+            generations.put(attachmentReference, schedule(attachmentReference));
+        }
+        try {
+            CompletableFuture.allOf(generations.values().toArray(new CompletableFuture[0]))
+                .get(this.configuration.getThumbnailWaitTimeout(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            this.logger.debug("Some of the [{}] requested thumbnails are still being generated.",
+                generations.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Not thrown, the failed generations are completed with an empty URL.
+        }
+
+        Map<AttachmentReference, String> thumbnails = new LinkedHashMap<>();
+        for (Map.Entry<AttachmentReference, CompletableFuture<String>> generation : generations.entrySet()) {
+            String thumbnailUrl = generation.getValue().getNow(EMPTY_STRING);
+            try {
+                thumbnails.put(generation.getKey(), renderThumbnail(generation.getKey(), thumbnailUrl, isInline));
+            } catch (Exception e) {
+                this.logger.warn("Failed to render the thumbnail of [{}]. Root cause is: [{}]", generation.getKey(),
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        return thumbnails;
+    }
+
+    /**
+     * @return the future URL of the thumbnail, empty if the thumbnail can't be generated
+     */
+    private CompletableFuture<String> schedule(AttachmentReference attachmentReference)
+    {
+        try {
+            if (!this.thumbnailGeneratorManager.isSupported(attachmentReference.getName())) {
+                return CompletableFuture.completedFuture(EMPTY_STRING);
+            }
+            // The size of the file is checked by the generation, in parallel with the other generations. The files
+            // that are too big to be converted get an empty URL and are displayed with their mime type icon.
+            return this.thumbnailGeneratorManager.scheduleThumbnail(attachmentReference)
+                .exceptionally(error -> EMPTY_STRING);
+        } catch (RejectedExecutionException e) {
+            this.logger.warn("Too many pending thumbnail generations, skipping the thumbnail of [{}].",
+                attachmentReference);
+        } catch (Exception e) {
+            this.logger.error("Failed to schedule the thumbnail generation of [{}]. Root cause is: [{}]",
+                attachmentReference, ExceptionUtils.getRootCauseMessage(e));
+        }
+        return CompletableFuture.completedFuture(EMPTY_STRING);
+    }
+
+    private String getFallback(AttachmentReference attachmentReference, boolean isInline)
+    {
+        try {
+            return renderThumbnail(attachmentReference, EMPTY_STRING, isInline);
+        } catch (Exception e) {
+            this.logger.debug("Failed to render the mime type icon of [{}]. Root cause is: [{}]", attachmentReference,
+                ExceptionUtils.getRootCauseMessage(e));
+            return EMPTY_STRING;
+        }
+    }
+
+    private String renderThumbnail(AttachmentReference attachmentReference, String thumbnailUrl, boolean isInline)
+        throws Exception
+    {
+        Block block = thumbnailUrl.isEmpty()
+            ? this.viewFileExternalBlockManager.getMimeTypeBlock(attachmentReference, isInline)
+            : this.viewFileExternalBlockManager.getThumbnailBlock(thumbnailUrl, isInline);
+        WikiPrinter printer = new DefaultWikiPrinter();
+        this.xhtmlRenderer.render(block, printer);
+        return printer.toString();
+    }
+}
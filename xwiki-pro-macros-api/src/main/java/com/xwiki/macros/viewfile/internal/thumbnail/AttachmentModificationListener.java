@@ -26,6 +26,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
@@ -38,11 +39,15 @@ import org.xwiki.observation.event.Event;
 
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.internal.event.AbstractAttachmentEvent;
+import com.xpn.xwiki.internal.event.AttachmentAddedEvent;
 import com.xpn.xwiki.internal.event.AttachmentDeletedEvent;
 import com.xpn.xwiki.internal.event.AttachmentUpdatedEvent;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 
 /**
- * Listens to attachments delete and update events and attempt to remove the existing thumbnails if they exist.
+ * Listens to attachments delete and update events and attempt to remove the existing thumbnails if they exist. When
+ * the thumbnail pre-generation is enabled, the thumbnails of the added and updated attachments are also generated in
+ * the background, so that they are ready before the file is displayed.
  *
  * @version $Id$
  * @since 1.26.22
@@ -74,22 +79,35 @@ public class AttachmentModificationListener extends AbstractEventListener implem
     @Inject
     private TemporaryFileManager temporaryFileManager;
 
+    @Inject
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
     /**
-     * Creates an event-listener filtering for AttachmentDeletedEvent and AttachmentUpdatedEvent.
+     * Creates an event-listener filtering for AttachmentDeletedEvent, AttachmentUpdatedEvent and AttachmentAddedEvent.
      */
     public AttachmentModificationListener()
     {
-        super(HINT, new AttachmentDeletedEvent(), new AttachmentUpdatedEvent());
+        super(HINT, new AttachmentDeletedEvent(), new AttachmentUpdatedEvent(), new AttachmentAddedEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        XWikiDocument document = (XWikiDocument) source;
+        if (document == null) {
+            return;
+        }
+        String attachmentName = ((AbstractAttachmentEvent) event).getName();
         if (event instanceof AttachmentUpdatedEvent || event instanceof AttachmentDeletedEvent) {
-            XWikiDocument document = (XWikiDocument) source;
-            if (document != null) {
-                removeThumbnail(((AbstractAttachmentEvent) event).getName(), document);
-            }
+            removeThumbnail(attachmentName, document);
+        }
+        if ((event instanceof AttachmentAddedEvent || event instanceof AttachmentUpdatedEvent)
+            && configuration.isThumbnailPregenerationEnabled() && thumbnailGeneratorManager.isSupported(attachmentName))
+        {
+            pregenerateThumbnail(attachmentName, document);
         }
     }
 
@@ -104,19 +122,37 @@ public class AttachmentModificationListener extends AbstractEventListener implem
         AttachmentReference attachmentReference =
             attachmentResolver.resolve(attachmentName, document.getDocumentReference());
         try {
-            File thumbnail = temporaryFileManager.getThumbnailFile(attachmentReference);
-            if (thumbnail.exists()) {
-                if (thumbnail.delete()) {
-                    logger.info("Successfully removed thumbnail at location: [{}]", thumbnail.getPath());
+            File thumbnails = temporaryFileManager.getThumbnailFolder(attachmentReference);
+            if (thumbnails.exists()) {
+                fileDelete(thumbnails);
+                if (!thumbnails.exists()) {
+                    logger.info("Successfully removed thumbnail at location: [{}]", thumbnails.getPath());
                 } else {
-                    logger.warn("Failed to remove thumbnail at location: [{}]", thumbnail.getPath());
+                    logger.warn("Failed to remove thumbnail at location: [{}]", thumbnails.getPath());
                 }
             }
+            // The normalized copies of a CSV attachment are outdated as well.
+            File csvCopies = temporaryFileManager.getCsvFolder(attachmentReference);
+            if (csvCopies.exists()) {
+                fileDelete(csvCopies);
+            }
         } catch (IOException e) {
             logger.error("Failed to remove thumbnail at attachment modification.", e);
         }
     }
 
+    private void pregenerateThumbnail(String attachmentName, XWikiDocument document)
+    {
+        AttachmentReference attachmentReference =
+            attachmentResolver.resolve(attachmentName, document.getDocumentReference());
+        try {
+            thumbnailGeneratorManager.scheduleThumbnail(attachmentReference);
+        } catch (Exception e) {
+            logger.warn("Failed to schedule the thumbnail generation of [{}]. Root cause is: [{}]",
+                attachmentReference, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
     private void deleteOldFormat()
     {
         File tempDir = new File(environment.getTemporaryDirectory(), OLD_THUMBNAILS_PATH);
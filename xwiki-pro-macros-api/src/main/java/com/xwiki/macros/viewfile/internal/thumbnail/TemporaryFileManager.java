@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -31,7 +33,9 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.resource.ResourceReference;
 import org.xwiki.resource.ResourceReferenceSerializer;
@@ -41,8 +45,15 @@ import org.xwiki.resource.temporary.TemporaryResourceReference;
 import org.xwiki.resource.temporary.TemporaryResourceStore;
 import org.xwiki.url.ExtendedURL;
 
+import com.xpn.xwiki.XWikiException;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+
 /**
- * Helper class used to handle temporary files operations.
+ * Helper class used to handle temporary files operations. Thumbnails are stored per attachment version, so a thumbnail
+ * of an older version can never be served for the current one; the thumbnails of the previous versions are removed
+ * when the thumbnail of a new version is created. Other files computed from an attachment version (e.g. the oversize
+ * verdict) can be stored next to its thumbnail and share its lifecycle. The normalized copies of the CSV attachments
+ * are stored apart, in their own folder, since they are neither thumbnails nor served to the browser.
  *
  * @version $Id$
  * @since 1.29.0
@@ -51,7 +62,23 @@ import org.xwiki.url.ExtendedURL;
 @Singleton
 public class TemporaryFileManager
 {
-    private static final String JPG_EXTENSION = ".jpg";
+    static final String MODULE_ID = "viewfilemacro";
+
+    static final String THUMBNAILS_FOLDER = "thumbnails";
+
+    static final String CSV_FOLDER = "csv";
+
+    static final String JPG_EXTENSION = ".jpg";
+
+    static final String CSV_EXTENSION = ".csv";
+
+    private static final String UNKNOWN_VERSION = "unknown";
+
+    /**
+     * The last access time of the thumbnails and the CSV copies is updated at most once per hour, to limit the disk
+     * writes.
+     */
+    private static final long TOUCH_INTERVAL = 3600000L;
 
     /**
      * Used to create and access the temporary files.
@@ -65,6 +92,12 @@ public class TemporaryFileManager
     @Inject
     private ResourceReferenceSerializer<ResourceReference, ExtendedURL> resourceReferenceSerializer;
 
+    @Inject
+    private AttachmentVersionProvider attachmentVersionProvider;
+
+    @Inject
+    private Environment environment;
+
     /**
      * Create a new thumbnail file for a given {@link AttachmentReference}.
      *
@@ -80,8 +113,32 @@ public class TemporaryFileManager
     public String createThumbnail(AttachmentReference attachmentReference, InputStream content)
         throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
     {
-        TemporaryResourceReference temporaryResourceReference = getTemporaryResourceReference(attachmentReference);
-        this.temporaryResourceStore.createTemporaryFile(temporaryResourceReference, content);
+        return createThumbnail(attachmentReference, getVersionKey(attachmentReference), content);
+    }
+
+    /**
+     * Create the thumbnail file of the given attachment version.
+     *
+     * @param attachmentReference reference for which to create the temporary file
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}
+     * @param content the file content
+     * @return the URL to the newly created temporary file
+     * @throws IOException if any error occurs during the file creation
+     * @throws SerializeResourceReferenceException if there was an error while serializing the XWiki Resource
+     *     object
+     * @throws UnsupportedResourceReferenceException if the passed representation points to an unsupported Resource
+     *     Reference type that we don't know how to serialize
+     * @since 1.31.3
+     */
+    public String createThumbnail(AttachmentReference attachmentReference, String versionKey, InputStream content)
+        throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
+    {
+        TemporaryResourceReference temporaryResourceReference =
+            getTemporaryResourceReference(attachmentReference, versionKey);
+        File thumbnail = this.temporaryResourceStore.createTemporaryFile(temporaryResourceReference, content);
+        // Keep the other files of the same version, e.g. the oversize verdict.
+        deleteOtherVersions(thumbnail.getParentFile(),
+            thumbnail.getName().substring(0, thumbnail.getName().length() - JPG_EXTENSION.length()));
         return this.resourceReferenceSerializer.serialize(temporaryResourceReference).serialize();
     }
 
@@ -94,12 +151,152 @@ public class TemporaryFileManager
      */
     public File getThumbnailFile(AttachmentReference attachmentReference) throws IOException
     {
-        TemporaryResourceReference temporaryResourceReference = getTemporaryResourceReference(attachmentReference);
+        return getThumbnailFile(attachmentReference, getVersionKey(attachmentReference));
+    }
+
+    /**
+     * Get the thumbnail file of the given attachment version.
+     *
+     * @param attachmentReference reference for which to search for the temporary file
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}, or {@code null}
+     *     if the attachment doesn't exist
+     * @return a {@link File} representing the thumbnail of the given attachment version
+     * @throws IOException if any error occurs during the file retrieval
+     * @since 1.31.3
+     */
+    public File getThumbnailFile(AttachmentReference attachmentReference, String versionKey) throws IOException
+    {
+        TemporaryResourceReference temporaryResourceReference =
+            getTemporaryResourceReference(attachmentReference, versionKey);
         return this.temporaryResourceStore.getTemporaryFile(temporaryResourceReference);
     }
 
     /**
-     * Check if a thumbnail file exists for the given {@link AttachmentReference}.
+     * Get the folder holding the thumbnails of all the versions of the given attachment.
+     *
+     * @param attachmentReference reference for which to search for the temporary folder
+     * @return a {@link File} representing the folder of the given {@link AttachmentReference} thumbnails
+     * @throws IOException if any error occurs during the folder retrieval
+     * @since 1.31.3
+     */
+    public File getThumbnailFolder(AttachmentReference attachmentReference) throws IOException
+    {
+        return getAttachmentFolder(attachmentReference, THUMBNAILS_FOLDER);
+    }
+
+    /**
+     * Get the folder holding the normalized copies of all the versions of the given CSV attachment.
+     *
+     * @param attachmentReference the reference of the CSV attachment
+     * @return a {@link File} representing the folder of the normalized copies of the given attachment
+     * @throws IOException if any error occurs during the folder retrieval
+     * @since 1.31.3
+     */
+    public File getCsvFolder(AttachmentReference attachmentReference) throws IOException
+    {
+        return getAttachmentFolder(attachmentReference, CSV_FOLDER);
+    }
+
+    /**
+     * Get the folder holding the thumbnails of all the attachments of the given document.
+     *
+     * @param documentReference the reference of the document
+     * @return a {@link File} representing the folder of the thumbnails of the given document
+     * @throws IOException if any error occurs during the folder retrieval
+     * @since 1.31.3
+     */
+    public File getDocumentThumbnailFolder(DocumentReference documentReference) throws IOException
+    {
+        return this.temporaryResourceStore.getTemporaryFile(
+            new TemporaryResourceReference(MODULE_ID, List.of(THUMBNAILS_FOLDER), documentReference));
+    }
+
+    /**
+     * Get the folder holding the normalized copies of all the CSV attachments of the given document.
+     *
+     * @param documentReference the reference of the document
+     * @return a {@link File} representing the folder of the normalized CSV copies of the given document
+     * @throws IOException if any error occurs during the folder retrieval
+     * @since 1.31.3
+     */
+    public File getDocumentCsvFolder(DocumentReference documentReference) throws IOException
+    {
+        return this.temporaryResourceStore.getTemporaryFile(
+            new TemporaryResourceReference(MODULE_ID, List.of(CSV_FOLDER), documentReference));
+    }
+
+    /**
+     * Get the root folder of the temporary files of the View File macro, holding the thumbnails of all the documents.
+     *
+     * @return the root folder of the thumbnail store
+     * @throws IOException if any error occurs during the folder retrieval
+     * @since 1.31.3
+     */
+    public File getThumbnailStoreFolder() throws IOException
+    {
+        // The temporary files without owning entity are stored directly under the module folder.
+        return this.temporaryResourceStore.getTemporaryFile(
+            new TemporaryResourceReference(MODULE_ID, List.of(THUMBNAILS_FOLDER))).getParentFile();
+    }
+
+    /**
+     * Get a file holding data computed from the given version of an attachment, stored next to the thumbnail of this
+     * version. The file is removed along with the thumbnails of the attachment.
+     *
+     * @param attachmentReference the reference of the attachment
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}
+     * @param extension the extension of the file, identifying its content
+     * @return a {@link File} representing the data file, which may not exist
+     * @throws IOException if any error occurs during the file retrieval
+     * @since 1.31.3
+     */
+    public File getVersionFile(AttachmentReference attachmentReference, String versionKey, String extension)
+        throws IOException
+    {
+        List<String> resourcePath = Arrays.asList(THUMBNAILS_FOLDER, encode(attachmentReference.getName()),
+            encode(versionKey) + extension);
+        return this.temporaryResourceStore.getTemporaryFile(
+            new TemporaryResourceReference(MODULE_ID, resourcePath, attachmentReference.getDocumentReference()));
+    }
+
+    /**
+     * Get the normalized copy of the given version of a CSV attachment. The copies count toward the thumbnail store
+     * quota; they are also removed when a copy of a newer version is stored, and along with their attachment.
+     *
+     * @param attachmentReference the reference of the CSV attachment
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}
+     * @param extension the extension of the file, identifying the parsing parameters of the copy
+     * @return a {@link File} representing the normalized copy, which may not exist
+     * @throws IOException if any error occurs during the file retrieval
+     * @since 1.31.3
+     */
+    public File getCsvFile(AttachmentReference attachmentReference, String versionKey, String extension)
+        throws IOException
+    {
+        List<String> resourcePath =
+            Arrays.asList(CSV_FOLDER, encode(attachmentReference.getName()), encode(versionKey) + extension);
+        return this.temporaryResourceStore.getTemporaryFile(
+            new TemporaryResourceReference(MODULE_ID, resourcePath, attachmentReference.getDocumentReference()));
+    }
+
+    /**
+     * Remove the normalized copies of the other versions of the given CSV attachment.
+     *
+     * @param attachmentReference the reference of the CSV attachment
+     * @param versionKey the key of the attachment version whose copies are kept
+     * @throws IOException if any error occurs during the removal
+     * @since 1.31.3
+     */
+    public void deleteOtherCsvVersions(AttachmentReference attachmentReference, String versionKey) throws IOException
+    {
+        // The file names of the copies start with the (encoded) version.
+        File versionFile = getCsvFile(attachmentReference, versionKey, "");
+        deleteOtherVersions(versionFile.getParentFile(), versionFile.getName());
+    }
+
+    /**
+     * Check if a thumbnail file exists for the given {@link AttachmentReference}. An existing thumbnail is marked as
+     * accessed.
      *
      * @param attachmentReference reference for which to search for the temporary file
      * @return {@code true} if the file exists, {@code false} otherwise
@@ -107,7 +304,43 @@ public class TemporaryFileManager
      */
     public boolean thumbnailFileExists(AttachmentReference attachmentReference) throws IOException
     {
-        return getThumbnailFile(attachmentReference).exists();
+        return thumbnailFileExists(attachmentReference, getVersionKey(attachmentReference));
+    }
+
+    /**
+     * Check if a thumbnail file exists for the given attachment version, without loading the document holding the
+     * attachment. An existing thumbnail is marked as accessed.
+     *
+     * @param attachmentReference reference for which to search for the temporary file
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}, or {@code null}
+     *     if the attachment doesn't exist
+     * @return {@code true} if the file exists, {@code false} otherwise
+     * @throws IOException if any error occurs during the file retrieval
+     * @since 1.31.3
+     */
+    public boolean thumbnailFileExists(AttachmentReference attachmentReference, String versionKey) throws IOException
+    {
+        File thumbnail = getThumbnailFile(attachmentReference, versionKey);
+        if (!thumbnail.exists()) {
+            return false;
+        }
+        markAccessed(thumbnail);
+        return true;
+    }
+
+    /**
+     * Keep track of the last access to a thumbnail or a CSV copy, used to evict the least recently used files when the
+     * store is full.
+     *
+     * @param file a thumbnail or a CSV copy
+     * @since 1.31.3
+     */
+    public void markAccessed(File file)
+    {
+        long now = System.currentTimeMillis();
+        if (now - file.lastModified() > TOUCH_INTERVAL) {
+            file.setLastModified(now);
+        }
     }
 
     /**
@@ -115,23 +348,115 @@ public class TemporaryFileManager
      *
      * @param attachmentReference reference for which to search for the temporary file
      * @return the URL to the temporary file
+     * @throws IOException if the version of the attachment can't be retrieved
      * @throws SerializeResourceReferenceException if there was an error while serializing the XWiki Resource
      *     object
      * @throws UnsupportedResourceReferenceException if the passed representation points to an unsupported Resource
      *     Reference type that we don't know how to serialize
      */
     public String getThumbnailURL(AttachmentReference attachmentReference)
+        throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
+    {
+        return getThumbnailURL(attachmentReference, getVersionKey(attachmentReference));
+    }
+
+    /**
+     * Get the URL to the thumbnail of the given attachment version, without loading the document holding the
+     * attachment.
+     *
+     * @param attachmentReference reference for which to search for the temporary file
+     * @param versionKey the key of the attachment version, see {@link AttachmentVersionProvider}, or {@code null}
+     *     if the attachment doesn't exist
+     * @return the URL to the temporary file
+     * @throws SerializeResourceReferenceException if there was an error while serializing the XWiki Resource
+     *     object
+     * @throws UnsupportedResourceReferenceException if the passed representation points to an unsupported Resource
+     *     Reference type that we don't know how to serialize
+     * @since 1.31.3
+     */
+    public String getThumbnailURL(AttachmentReference attachmentReference, String versionKey)
         throws SerializeResourceReferenceException, UnsupportedResourceReferenceException
     {
-        TemporaryResourceReference temporaryResourceReference = getTemporaryResourceReference(attachmentReference);
+        TemporaryResourceReference temporaryResourceReference =
+            getTemporaryResourceReference(attachmentReference, versionKey);
         return this.resourceReferenceSerializer.serialize(temporaryResourceReference).serialize();
     }
 
-    private static TemporaryResourceReference getTemporaryResourceReference(AttachmentReference attachmentReference)
+    /**
+     * Copy the given content to a new file of the temporary directory, so that it can be read on demand instead of
+     * being loaded in memory. The caller is responsible for deleting the file once done with it.
+     *
+     * @param content the content to copy
+     * @param suffix the suffix of the file name, e.g. its extension
+     * @return the created file
+     * @throws IOException if the file can't be created or written
+     * @since 1.31.3
+     */
+    public File spool(InputStream content, String suffix) throws IOException
+    {
+        File file = File.createTempFile(MODULE_ID, suffix, this.environment.getTemporaryDirectory());
+        try {
+            Files.copy(content, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * @param attachmentReference the reference of an attachment
+     * @param storeFolder the folder of the files computed from the attachments, i.e. {@link #THUMBNAILS_FOLDER} or
+     *     {@link #CSV_FOLDER}
+     * @return the folder holding the files computed from all the versions of the given attachment
+     * @throws IOException if any error occurs during the folder retrieval
+     */
+    File getAttachmentFolder(AttachmentReference attachmentReference, String storeFolder) throws IOException
     {
-        String encodedFileReference = URLEncoder.encode(attachmentReference.getName(), StandardCharsets.UTF_8);
-        List<String> resourcePath = Arrays.asList("thumbnails", encodedFileReference + JPG_EXTENSION);
+        List<String> resourcePath = Arrays.asList(storeFolder, encode(attachmentReference.getName()));
+        return this.temporaryResourceStore.getTemporaryFile(new TemporaryResourceReference(MODULE_ID, resourcePath,
+            attachmentReference.getDocumentReference()));
+    }
+
+    private TemporaryResourceReference getTemporaryResourceReference(AttachmentReference attachmentReference,
+        String versionKey)
+    {
+        List<String> resourcePath = Arrays.asList(THUMBNAILS_FOLDER, encode(attachmentReference.getName()),
+            encode(versionKey != null ? versionKey : UNKNOWN_VERSION) + JPG_EXTENSION);
         EntityReference owningEntityReference = attachmentReference.getDocumentReference();
-        return new TemporaryResourceReference("viewfilemacro", resourcePath, owningEntityReference);
+        return new TemporaryResourceReference(MODULE_ID, resourcePath, owningEntityReference);
+    }
+
+    /**
+     * @param attachmentReference an attachment reference
+     * @return the key of the current version of the attachment, see {@link AttachmentVersionProvider}, or
+     *     {@code null} if the attachment doesn't exist
+     * @throws IOException if the attachment version can't be retrieved
+     * @since 1.31.3
+     */
+    public String getVersionKey(AttachmentReference attachmentReference) throws IOException
+    {
+        try {
+            return this.attachmentVersionProvider.getVersionKey(attachmentReference);
+        } catch (XWikiException e) {
+            throw new IOException(String.format("Failed to get the version of [%s].", attachmentReference), e);
+        }
+    }
+
+    private static void deleteOtherVersions(File folder, String versionPrefix) throws IOException
+    {
+        File[] versions = folder.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (!version.getName().startsWith(versionPrefix + '.')) {
+                    Files.deleteIfExists(version.toPath());
+                }
+            }
+        }
+    }
+
+    private static String encode(String value)
+    {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.concurrent.Callable;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Prepares the tasks executed by the thumbnail worker threads, which don't have an execution context of their own.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ThumbnailExecutionContextHelper.class)
+@Singleton
+public class ThumbnailExecutionContextHelper
+{
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    /**
+     * Wrap the given task so that it runs in a new execution context, on the wiki and with the user of the calling
+     * thread.
+     *
+     * @param task the task to wrap
+     * @param <T> the type of the task result
+     * @return the wrapped task
+     */
+    public <T> Callable<T> wrap(Callable<T> task)
+    {
+        XWikiContext callerContext = this.wikiContextProvider.get();
+        WikiReference wikiReference = callerContext != null ? callerContext.getWikiReference() : null;
+        DocumentReference userReference = callerContext != null ? callerContext.getUserReference() : null;
+        return wrap(task, wikiReference, userReference);
+    }
+
+    /**
+     * Wrap the given task so that it runs in a new execution context, on the given wiki and with the given user.
+     *
+     * @param task the task to wrap
+     * @param wikiReference the wiki on which the task runs, {@code null} to keep the wiki of the new context
+     * @param userReference the user running the task, {@code null} for no user
+     * @param <T> the type of the task result
+     * @return the wrapped task
+     */
+    public <T> Callable<T> wrap(Callable<T> task, WikiReference wikiReference, DocumentReference userReference)
+    {
+        return () -> {
+            this.executionContextManager.initialize(new ExecutionContext());
+            try {
+                XWikiContext context = this.wikiContextProvider.get();
+                if (wikiReference != null) {
+                    context.setWikiReference(wikiReference);
+                }
+                context.setUserReference(userReference);
+                return task.call();
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.xwiki.component.annotation.Component;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+
+/**
+ * Remembers the failed thumbnail generations, indexed by attachment version, so that a file that can't be converted
+ * (e.g. corrupted or password protected) is not converted again on each display. A failed generation is retried after
+ * a delay that doubles with each failure, and right away when a new version of the attachment is uploaded.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ThumbnailFailureCache.class)
+@Singleton
+public class ThumbnailFailureCache
+{
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * The expired entries are kept to compute the delay of the next failure, until they are evicted.
+     */
+    private final Map<String, Failure> failures = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    });
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    /**
+     * @param key the key of the attachment version
+     * @return the reason of the last failed generation of the given attachment version, if it shouldn't be retried
+     *     yet, {@code null} otherwise
+     */
+    public String getFailure(String key)
+    {
+        Failure failure = this.failures.get(key);
+        return failure != null && System.currentTimeMillis() < failure.expirationTime ? failure.reason : null;
+    }
+
+    /**
+     * Record a failed generation.
+     *
+     * @param key the key of the attachment version
+     * @param error the cause of the failure
+     * @return the number of seconds before the generation can be retried
+     */
+    public long recordFailure(String key, Throwable error)
+    {
+        Failure previousFailure = this.failures.get(key);
+        int count = previousFailure != null ? previousFailure.count + 1 : 1;
+        long delay = this.configuration.getThumbnailFailureTTL();
+        for (int i = 1; i < count && delay < this.configuration.getThumbnailFailureMaxTTL(); i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, this.configuration.getThumbnailFailureMaxTTL());
+        this.failures.put(key, new Failure(ExceptionUtils.getRootCauseMessage(error), count,
+            System.currentTimeMillis() + delay * 1000L));
+        return delay;
+    }
+
+    private static final class Failure
+    {
+        private final String reason;
+
+        private final int count;
+
+        private final long expirationTime;
+
+        Failure(String reason, int count, long expirationTime)
+        {
+            this.reason = reason;
+            this.count = count;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
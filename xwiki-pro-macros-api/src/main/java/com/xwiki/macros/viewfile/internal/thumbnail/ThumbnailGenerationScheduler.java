@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PdfThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PresentationThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
+import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
+
+/**
+ * Runs the thumbnail generations on dedicated worker pools, one per {@link ThumbnailGenerator} type, so that a burst of
+ * thumbnail requests can't starve the shared async rendering executor or the office server.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ThumbnailGenerationScheduler.class)
+@Singleton
+public class ThumbnailGenerationScheduler implements Initializable, Disposable
+{
+    /**
+     * The hints of the thumbnail generators, each having its own pool.
+     */
+    public static final List<String> HINTS =
+        List.of(OfficeThumbnailGenerator.HINT, PresentationThumbnailGenerator.HINT, PdfThumbnailGenerator.HINT);
+
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    @Inject
+    private ThumbnailExecutionContextHelper contextHelper;
+
+    @Inject
+    private ThumbnailMetrics metrics;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        for (String hint : HINTS) {
+            this.executors.put(hint, createExecutor(hint));
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        for (ThreadPoolExecutor executor : this.executors.values()) {
+            // The generations that didn't start are cancelled, so that their callers don't wait for them.
+            for (Runnable pending : executor.shutdownNow()) {
+                if (pending instanceof GenerationTask) {
+                    ((GenerationTask) pending).result.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule a thumbnail generation on the pool of the given generator type.
+     *
+     * @param hint the hint of the {@link ThumbnailGenerator} that will handle the generation
+     * @param generation the generation task, returning the thumbnail URL
+     * @return the future result of the generation
+     * @throws RejectedExecutionException if the queue of the given generator type is full
+     */
+    public CompletableFuture<String> schedule(String hint, Callable<String> generation)
+    {
+        ThreadPoolExecutor executor = this.executors.get(hint);
+        if (executor == null) {
+            throw new IllegalArgumentException(String.format("No thumbnail pool for generator [%s].", hint));
+        }
+        GenerationTask task = new GenerationTask(hint, this.contextHelper.wrap(generation));
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.metrics.recordRejection(hint);
+            throw e;
+        }
+        return task.result;
+    }
+
+    /**
+     * @param hint the hint of a {@link ThumbnailGenerator}
+     * @return the number of generations of the given type waiting for a worker
+     */
+    public int getQueueDepth(String hint)
+    {
+        ThreadPoolExecutor executor = this.executors.get(hint);
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    private ThreadPoolExecutor createExecutor(String hint)
+    {
+        int poolSize = this.configuration.getThumbnailPoolSize(hint);
+        BasicThreadFactory threadFactory =
+            new BasicThreadFactory.Builder().namingPattern("View File " + hint + " thumbnail generator %d")
+                .daemon(true).priority(Thread.MIN_PRIORITY).build();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(this.configuration.getThumbnailQueueSize(hint)), threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A generation waiting for or running on a worker, completing its future whatever happens.
+     */
+    private final class GenerationTask implements Runnable
+    {
+        private final String hint;
+
+        private final Callable<String> generation;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private final long scheduleTime = System.currentTimeMillis();
+
+        GenerationTask(String hint, Callable<String> generation)
+        {
+            this.hint = hint;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run()
+        {
+            metrics.recordQueueWait(this.hint, System.currentTimeMillis() - this.scheduleTime);
+            try {
+                this.result.complete(this.generation.call());
+            } catch (Throwable e) {
+                // Errors (e.g. an OutOfMemoryError on a large file) must complete the future as well, otherwise the
+                // generation stays pending forever and its callers keep waiting for it.
+                this.result.completeExceptionally(e);
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        }
+    }
+}
@@ -20,19 +20,36 @@
 package com.xwiki.macros.viewfile.internal.thumbnail;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.model.reference.AttachmentReference;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGenerator;
 import com.xwiki.macros.viewfile.internal.thumbnail.generators.PdfThumbnailGenerator;
 import com.xwiki.macros.viewfile.internal.thumbnail.generators.PresentationThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
 import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
 
 /**
@@ -60,6 +77,12 @@ public class ThumbnailGeneratorManager
 
     private static final String EMPTY_STRING = "";
 
+    /**
+     * The generations in progress, indexed by attachment version, shared by all the callers asking for the same
+     * thumbnail.
+     */
+    private final Map<String, CompletableFuture<String>> pendingGenerations = new ConcurrentHashMap<>();
+
     @Inject
     private Logger logger;
 
@@ -69,22 +92,56 @@ public class ThumbnailGeneratorManager
     @Inject
     private ComponentManager componentManager;
 
+    @Inject
+    private ThumbnailGenerationScheduler scheduler;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    @Inject
+    private AttachmentVersionProvider attachmentVersionProvider;
+
+    @Inject
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @Inject
+    private ThumbnailFailureCache failureCache;
+
+    @Inject
+    private ThumbnailMetrics metrics;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
     /**
      * Checks if a thumbnail already exists for the given attachment reference, and if not, attempts to create a
-     * thumbnail image and returns the path to it.
+     * thumbnail image and returns the path to it. The store lookup is not recorded in the metrics, since the displays
+     * first look for the thumbnail with {@link #getExistingThumbnailUrl(AttachmentReference)}.
      *
      * @param attachmentReference the reference of the file for which a thumbnail is requested.
      * @return the url to the thumbnail as a {@link String} if the image was found or successfully created, or an empty
-     *     String if an error occurs or if the file extension is not supported.
+     *     String if an error occurs, if the file extension is not supported, if the thumbnail could not be generated
+     *     in time or if its last generation failed recently.
      */
     public String getThumbnailUrl(AttachmentReference attachmentReference)
     {
         try {
-            if (!temporaryFileManager.thumbnailFileExists(attachmentReference)) {
-                return generateAndGetThumbnailUrlPath(attachmentReference);
+            // The version is resolved once, since it requires loading the document holding the attachment.
+            String versionKey = attachmentVersionProvider.getVersionKey(attachmentReference);
+            if (!temporaryFileManager.thumbnailFileExists(attachmentReference, versionKey)) {
+                return generateAndGetThumbnailUrlPath(attachmentReference, versionKey);
             } else {
-                return temporaryFileManager.getThumbnailURL(attachmentReference);
+                return temporaryFileManager.getThumbnailURL(attachmentReference, versionKey);
             }
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many pending thumbnail generations, skipping the thumbnail of [{}].", attachmentReference);
+            return EMPTY_STRING;
+        } catch (TimeoutException e) {
+            logger.debug("The thumbnail of [{}] is still being generated.", attachmentReference);
+            return EMPTY_STRING;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EMPTY_STRING;
         } catch (Exception e) {
             logger.error("There was an error while attempting to get the thumbnail URL. Root cause is: [{}]",
                 ExceptionUtils.getRootCauseMessage(e));
@@ -92,16 +149,166 @@ public class ThumbnailGeneratorManager
         }
     }
 
-    private String generateAndGetThumbnailUrlPath(AttachmentReference attachmentReference) throws Exception
+    /**
+     * Look for the thumbnail of the current version of the given attachment, without generating it. This is the
+     * store lookup recorded in the metrics, once per displayed thumbnail, whether the thumbnail is found or is then
+     * generated.
+     *
+     * @param attachmentReference the reference of the file for which a thumbnail is requested
+     * @return the URL of the thumbnail if it was already generated, {@code null} otherwise
+     * @since 1.31.3
+     */
+    public String getExistingThumbnailUrl(AttachmentReference attachmentReference)
+    {
+        if (!isSupported(attachmentReference.getName())) {
+            return null;
+        }
+        try {
+            String versionKey = attachmentVersionProvider.getVersionKey(attachmentReference);
+            boolean exists = temporaryFileManager.thumbnailFileExists(attachmentReference, versionKey);
+            metrics.recordCacheLookup(exists);
+            if (exists) {
+                return temporaryFileManager.getThumbnailURL(attachmentReference, versionKey);
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to look for the thumbnail of [{}]. Root cause is: [{}]", attachmentReference,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        return null;
+    }
+
+    /**
+     * Schedule the generation of the thumbnail of the given attachment in the background, unless the thumbnail
+     * already exists or is being generated.
+     *
+     * @param attachmentReference the reference of the file for which a thumbnail is requested
+     * @return the future URL of the thumbnail, or an empty String if the file extension is not supported or if the
+     *     last generation of the thumbnail failed recently
+     * @throws Exception if the generation can't be scheduled, e.g. because there are too many pending generations
+     * @since 1.31.3
+     */
+    public CompletableFuture<String> scheduleThumbnail(AttachmentReference attachmentReference) throws Exception
+    {
+        String versionKey = attachmentVersionProvider.getVersionKey(attachmentReference);
+        if (temporaryFileManager.thumbnailFileExists(attachmentReference, versionKey)) {
+            return CompletableFuture.completedFuture(
+                temporaryFileManager.getThumbnailURL(attachmentReference, versionKey));
+        }
+        CompletableFuture<String> generation = getPendingGeneration(attachmentReference, versionKey);
+        return generation != null ? generation : CompletableFuture.completedFuture(EMPTY_STRING);
+    }
+
+    /**
+     * @param fileName the name of a file
+     * @return {@code true} if a thumbnail can be generated for the given file, {@code false} otherwise
+     * @since 1.31.3
+     */
+    public boolean isSupported(String fileName)
+    {
+        return EXTENSION_HINT_MAP.containsKey(getExtension(fileName));
+    }
+
+    /**
+     * @return the lower case extensions of the files for which a thumbnail can be generated
+     * @since 1.31.3
+     */
+    public Set<String> getSupportedExtensions()
+    {
+        return EXTENSION_HINT_MAP.keySet();
+    }
+
+    private String generateAndGetThumbnailUrlPath(AttachmentReference attachmentReference, String versionKey)
+        throws Exception
+    {
+        CompletableFuture<String> generation = getPendingGeneration(attachmentReference, versionKey);
+        if (generation == null) {
+            return EMPTY_STRING;
+        }
+        try {
+            return generation.get(configuration.getThumbnailWaitTimeout(), TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Join the generation already in progress for the given attachment version, or schedule a new one unless the
+     * previous generation of this version failed recently.
+     */
+    private CompletableFuture<String> getPendingGeneration(AttachmentReference attachmentReference, String versionKey)
+        throws ComponentLookupException
     {
-        String extension = getExtension(attachmentReference.getName()).toLowerCase();
+        String extension = getExtension(attachmentReference.getName());
         String hint = EXTENSION_HINT_MAP.get(extension);
         if (hint == null) {
             logger.warn("Extension type [{}] not supported.", extension);
-            return EMPTY_STRING;
+            return null;
         }
         ThumbnailGenerator generator = componentManager.getInstance(ThumbnailGenerator.class, hint);
-        return generator.generateThumbnail(attachmentReference);
+        String generationKey = String.format("%s@%s", attachmentReference, versionKey);
+        String failure = failureCache.getFailure(generationKey);
+        if (failure != null) {
+            logger.debug("Skipping the thumbnail of [{}] which failed recently: [{}]", attachmentReference, failure);
+            return null;
+        }
+
+        CompletableFuture<String> generation = new CompletableFuture<>();
+        CompletableFuture<String> existingGeneration = pendingGenerations.putIfAbsent(generationKey, generation);
+        if (existingGeneration != null) {
+            return existingGeneration;
+        }
+        try {
+            scheduler.schedule(hint, () -> generateThumbnail(generator, hint, attachmentReference, versionKey))
+                .whenComplete((url, error) -> {
+                    // Stop sharing the generation before completing it, so that later callers look for the file.
+                    pendingGenerations.remove(generationKey, generation);
+                    if (error != null) {
+                        long retryDelay = failureCache.recordFailure(generationKey, error);
+                        logger.warn("Failed to generate the thumbnail of [{}], it will be retried in [{}] seconds. "
+                            + "Root cause is: [{}]", attachmentReference, retryDelay,
+                            ExceptionUtils.getRootCauseMessage(error));
+                        generation.completeExceptionally(error);
+                    } else {
+                        generation.complete(url);
+                    }
+                });
+        } catch (RuntimeException e) {
+            pendingGenerations.remove(generationKey, generation);
+            generation.completeExceptionally(e);
+            throw e;
+        }
+        return generation;
+    }
+
+    private String generateThumbnail(ThumbnailGenerator generator, String hint,
+        AttachmentReference attachmentReference, String versionKey) throws Exception
+    {
+        // The thumbnail may have been created by a generation that ended after the caller looked for it.
+        if (temporaryFileManager.thumbnailFileExists(attachmentReference, versionKey)) {
+            return temporaryFileManager.getThumbnailURL(attachmentReference, versionKey);
+        }
+        if (attachmentSizeValidator.isAttachmentOversize(attachmentReference)) {
+            return EMPTY_STRING;
+        }
+        long size = getAttachmentSize(attachmentReference);
+        long startTime = System.currentTimeMillis();
+        try {
+            String url = generator.generateThumbnail(attachmentReference, versionKey);
+            metrics.recordGeneration(hint, System.currentTimeMillis() - startTime, size);
+            return url;
+        } catch (Exception e) {
+            metrics.recordFailure(hint, System.currentTimeMillis() - startTime, size, e);
+            throw e;
+        }
+    }
+
+    private long getAttachmentSize(AttachmentReference attachmentReference) throws XWikiException
+    {
+        XWikiContext wikiContext = wikiContextProvider.get();
+        XWikiDocument document =
+            wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
+        XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+        return attachment != null ? attachment.getLongSize() : 0L;
     }
 
     private String getExtension(String fileName)
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.resource.AbstractResourceReferenceHandler;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.resource.ResourceReferenceHandlerChain;
+import org.xwiki.resource.ResourceReferenceHandlerException;
+import org.xwiki.resource.ResourceType;
+import org.xwiki.resource.temporary.TemporaryResourceReference;
+import org.xwiki.resource.temporary.TemporaryResourceStore;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Serves the View File thumbnails with HTTP caching headers. The thumbnail URLs include the attachment version, so the
+ * content behind a URL never changes and browsers and proxies can cache it without revalidating it. The other
+ * temporary resources, and the thumbnails that can't be served, are left to the default temporary resource handler.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component
+@Named("viewfilethumbnail")
+@Singleton
+public class ThumbnailResourceReferenceHandler extends AbstractResourceReferenceHandler<ResourceType>
+{
+    /**
+     * One year, the maximum recommended value.
+     */
+    private static final long MAX_AGE = 31536000L;
+
+    private static final String IMMUTABLE = ", max-age=" + MAX_AGE + ", immutable";
+
+    @Inject
+    private TemporaryResourceStore temporaryResourceStore;
+
+    @Inject
+    private ContextualAuthorizationManager contextualAuthorization;
+
+    @Inject
+    private AuthorizationManager authorization;
+
+    @Inject
+    private Container container;
+
+    @Override
+    public int getPriority()
+    {
+        // Run before the default temporary resource handler.
+        return 500;
+    }
+
+    @Override
+    public List<ResourceType> getSupportedResourceReferences()
+    {
+        return List.of(TemporaryResourceReference.TYPE);
+    }
+
+    @Override
+    public void handle(ResourceReference reference, ResourceReferenceHandlerChain chain)
+        throws ResourceReferenceHandlerException
+    {
+        TemporaryResourceReference temporaryReference = (TemporaryResourceReference) reference;
+        if (!isThumbnail(temporaryReference) || !(this.container.getRequest() instanceof ServletRequest)
+            || !(this.container.getResponse() instanceof ServletResponse))
+        {
+            chain.handleNext(reference);
+            return;
+        }
+
+        try {
+            File thumbnail = this.temporaryResourceStore.getTemporaryFile(temporaryReference);
+            EntityReference owningEntity = temporaryReference.getOwningEntityReference();
+            if (!thumbnail.isFile() || !this.contextualAuthorization.hasAccess(Right.VIEW, owningEntity)) {
+                // Let the default handler report the missing file or the denied access.
+                chain.handleNext(reference);
+                return;
+            }
+            serve(thumbnail, owningEntity);
+        } catch (IOException e) {
+            throw new ResourceReferenceHandlerException(
+                String.format("Failed to serve the thumbnail [%s].", temporaryReference.getResourceName()), e);
+        }
+    }
+
+    private void serve(File thumbnail, EntityReference owningEntity) throws IOException
+    {
+        HttpServletRequest request = ((ServletRequest) this.container.getRequest()).getHttpServletRequest();
+        HttpServletResponse response = ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
+
+        // The file name is the attachment version, and the thumbnail of a version is generated once.
+        String etag = String.format("\"%s-%d\"", thumbnail.getName(), thumbnail.length());
+        // Shared caches may only store the thumbnails that guests are allowed to see.
+        boolean isPublic = this.authorization.hasAccess(Right.VIEW, null, owningEntity);
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", (isPublic ? "public" : "private") + IMMUTABLE);
+
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType("image/jpeg");
+        response.setContentLengthLong(thumbnail.length());
+        Files.copy(thumbnail.toPath(), response.getOutputStream());
+    }
+
+    private boolean isThumbnail(TemporaryResourceReference reference)
+    {
+        List<String> resourcePath = reference.getResourcePath();
+        // The other files stored next to the thumbnails (e.g. the oversize verdicts) are not images and must not be
+        // cached as such.
+        return TemporaryFileManager.MODULE_ID.equals(reference.getModuleId()) && resourcePath.size() == 3
+            && TemporaryFileManager.THUMBNAILS_FOLDER.equals(resourcePath.get(0))
+            && resourcePath.get(2).endsWith(TemporaryFileManager.JPG_EXTENSION);
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+
+/**
+ * Keeps the thumbnail store bounded. The thumbnails of a deleted document are removed right away, and a periodic sweep
+ * removes the thumbnails of the attachments that don't exist anymore, then the least recently used thumbnails until
+ * the store fits its quota. The normalized copies of the CSV attachments are removed the same way, and count toward
+ * the same quota.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = { EventListener.class, ThumbnailStoreSweeper.class })
+@Named(ThumbnailStoreSweeper.HINT)
+@Singleton
+public class ThumbnailStoreSweeper extends AbstractEventListener implements Initializable, Disposable
+{
+    /**
+     * The hint for the component.
+     */
+    public static final String HINT = "ViewFileThumbnailStoreSweeper";
+
+    /**
+     * The thumbnails are stored in {@code <wiki>/<space>.../<page>/thumbnails/<attachment>/<version>.jpg}, and the CSV
+     * copies in {@code <wiki>/<space>.../<page>/csv/<attachment>/<version>.<format>.csv}.
+     */
+    private static final int MIN_THUMBNAIL_DEPTH = 6;
+
+    /**
+     * The folders holding the files computed from the attachments, per attachment.
+     */
+    private static final Set<String> ATTACHMENT_STORE_FOLDERS =
+        Set.of(TemporaryFileManager.THUMBNAILS_FOLDER, TemporaryFileManager.CSV_FOLDER);
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TemporaryFileManager temporaryFileManager;
+
+    @Inject
+    private ViewFileConfiguration configuration;
+
+    @Inject
+    private ThumbnailExecutionContextHelper contextHelper;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    private ScheduledExecutorService executor;
+
+    private volatile long storeSize = -1;
+
+    private volatile int entryCount = -1;
+
+    private volatile long lastSweepTime;
+
+    private boolean legacyThumbnailsRemoved;
+
+    /**
+     * Creates an event-listener filtering for DocumentDeletedEvent.
+     */
+    public ThumbnailStoreSweeper()
+    {
+        super(HINT, new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().namingPattern("View File thumbnail store sweeper").daemon(true)
+                .priority(Thread.MIN_PRIORITY).build());
+        long interval = this.configuration.getThumbnailStoreSweepInterval();
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                // The sweep doesn't depend on the context of the thread that initialized this component: it runs on
+                // the main wiki, without user.
+                WikiReference mainWikiReference = new WikiReference(this.wikiDescriptorManager.getMainWikiId());
+                this.contextHelper.wrap(this::sweepTask, mainWikiReference, null).call();
+            } catch (Exception e) {
+                this.logger.warn("Failed to sweep the thumbnail store. Root cause is: [{}]",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+    }
+
+    private Void sweepTask() throws IOException
+    {
+        sweep();
+        return null;
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        // The attachments belong to the default translation.
+        if (document == null || !Locale.ROOT.equals(document.getLocale())) {
+            return;
+        }
+        try {
+            File thumbnails = this.temporaryFileManager.getDocumentThumbnailFolder(document.getDocumentReference());
+            if (thumbnails.exists()) {
+                FileUtils.deleteDirectory(thumbnails);
+            }
+            File csvCopies = this.temporaryFileManager.getDocumentCsvFolder(document.getDocumentReference());
+            if (csvCopies.exists()) {
+                FileUtils.deleteDirectory(csvCopies);
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to remove the thumbnails of the deleted document [{}]. Root cause is: [{}]",
+                document.getDocumentReference(), ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Remove the thumbnails and the CSV copies of the attachments that don't exist anymore, then the least recently
+     * used thumbnails and CSV copies until the store fits its quota. The first sweep also removes the thumbnails
+     * stored in the format used before the thumbnails were versioned, since they are never served anymore.
+     *
+     * @throws IOException if the store can't be read
+     */
+    public synchronized void sweep() throws IOException
+    {
+        File storeFolder = this.temporaryFileManager.getThumbnailStoreFolder();
+        List<File> entries = new ArrayList<>();
+        if (storeFolder.isDirectory()) {
+            Path storePath = storeFolder.toPath();
+            if (!this.legacyThumbnailsRemoved) {
+                removeLegacyThumbnails(storePath);
+                this.legacyThumbnailsRemoved = true;
+            }
+            // The attachment folders also hold side files (e.g. the oversize verdicts and the CSV copies being
+            // written), which are removed along with the orphan folders, but only the thumbnails and the CSV copies
+            // count toward the quota.
+            Map<File, List<File>> filesByFolder = listAttachmentFiles(storePath);
+            for (Map.Entry<File, List<File>> entry : filesByFolder.entrySet()) {
+                String storeFolderName = entry.getKey().getParentFile().getName();
+                if (isOrphan(storePath, entry.getKey(), storeFolderName)) {
+                    FileUtils.deleteDirectory(entry.getKey());
+                } else {
+                    entry.getValue().stream().filter(file -> isStoreEntry(file, storeFolderName))
+                        .forEach(entries::add);
+                }
+            }
+        }
+
+        long size = entries.stream().mapToLong(File::length).sum();
+        int count = entries.size();
+        long quota = this.configuration.getThumbnailStoreQuota();
+        if (quota >= 0 && size > quota) {
+            entries.sort(Comparator.comparingLong(File::lastModified));
+            for (File storeEntry : entries) {
+                if (size <= quota) {
+                    break;
+                }
+                long length = storeEntry.length();
+                if (Files.deleteIfExists(storeEntry.toPath())) {
+                    size -= length;
+                    count--;
+                }
+            }
+        }
+
+        this.storeSize = size;
+        this.entryCount = count;
+        this.lastSweepTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the size in bytes of the thumbnail store after the last sweep, or {@code -1} if the store wasn't swept
+     *     yet
+     */
+    public long getStoreSize()
+    {
+        return this.storeSize;
+    }
+
+    /**
+     * @return the number of thumbnails and CSV copies in the store after the last sweep, or {@code -1} if the store
+     *     wasn't swept yet
+     */
+    public int getEntryCount()
+    {
+        return this.entryCount;
+    }
+
+    /**
+     * @return the time of the last sweep, in milliseconds since the epoch, or {@code 0} if the store wasn't swept yet
+     */
+    public long getLastSweepTime()
+    {
+        return this.lastSweepTime;
+    }
+
+    private Map<File, List<File>> listAttachmentFiles(Path storeFolder) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(storeFolder)) {
+            return files.filter(path -> isAttachmentFile(storeFolder, path)).map(Path::toFile)
+                .collect(Collectors.groupingBy(File::getParentFile, HashMap::new, Collectors.toList()));
+        }
+    }
+
+    private void removeLegacyThumbnails(Path storeFolder) throws IOException
+    {
+        List<Path> legacyThumbnails;
+        try (Stream<Path> files = Files.walk(storeFolder)) {
+            legacyThumbnails = files.filter(path -> isLegacyThumbnail(storeFolder, path)).collect(Collectors.toList());
+        }
+        for (Path legacyThumbnail : legacyThumbnails) {
+            Files.deleteIfExists(legacyThumbnail);
+        }
+        if (!legacyThumbnails.isEmpty()) {
+            this.logger.debug("Removed [{}] unversioned thumbnails.", legacyThumbnails.size());
+        }
+    }
+
+    private boolean isAttachmentFile(Path storeFolder, Path path)
+    {
+        Path relativePath = storeFolder.relativize(path);
+        int depth = relativePath.getNameCount();
+        return depth >= MIN_THUMBNAIL_DEPTH
+            && ATTACHMENT_STORE_FOLDERS.contains(relativePath.getName(depth - 3).toString())
+            && Files.isRegularFile(path);
+    }
+
+    /**
+     * The thumbnails used to be stored in {@code <wiki>/<space>.../<page>/thumbnails/<attachment>.jpg}, without the
+     * attachment version.
+     */
+    private boolean isLegacyThumbnail(Path storeFolder, Path path)
+    {
+        Path relativePath = storeFolder.relativize(path);
+        int depth = relativePath.getNameCount();
+        return depth >= MIN_THUMBNAIL_DEPTH - 1
+            && TemporaryFileManager.THUMBNAILS_FOLDER.equals(relativePath.getName(depth - 2).toString())
+            && isThumbnail(path.toFile()) && !isAttachmentFile(storeFolder, path) && Files.isRegularFile(path);
+    }
+
+    private static boolean isThumbnail(File file)
+    {
+        return file.getName().endsWith(TemporaryFileManager.JPG_EXTENSION);
+    }
+
+    private static boolean isStoreEntry(File file, String storeFolderName)
+    {
+        if (TemporaryFileManager.THUMBNAILS_FOLDER.equals(storeFolderName)) {
+            return isThumbnail(file);
+        }
+        return file.getName().endsWith(TemporaryFileManager.CSV_EXTENSION);
+    }
+
+    /**
+     * @param storeFolder the root folder of the thumbnail store
+     * @param folder the folder holding the thumbnails or the CSV copies of an attachment
+     * @param storeFolderName the name of the folder holding the folders of the attachments of a document
+     * @return {@code true} if the attachment doesn't exist anymore, {@code false} if it exists or if the folder can't
+     *     be matched to an attachment, in which case it is left untouched
+     */
+    private boolean isOrphan(Path storeFolder, File folder, String storeFolderName)
+    {
+        AttachmentReference attachmentReference = getAttachmentReference(storeFolder.relativize(folder.toPath()));
+        try {
+            if (attachmentReference == null
+                || !folder.equals(this.temporaryFileManager.getAttachmentFolder(attachmentReference, storeFolderName)))
+            {
+                return false;
+            }
+            XWikiContext wikiContext = this.wikiContextProvider.get();
+            DocumentReference documentReference = attachmentReference.getDocumentReference();
+            // Checking the existence doesn't load the document, which is only needed to look for the attachment.
+            if (!wikiContext.getWiki().exists(documentReference, wikiContext)) {
+                return true;
+            }
+            XWikiDocument document = wikiContext.getWiki().getDocument(documentReference, wikiContext);
+            return document.isNew() || document.getAttachment(attachmentReference.getName()) == null;
+        } catch (Exception e) {
+            this.logger.debug("Failed to check the attachment of the thumbnail folder [{}].", folder, e);
+            return false;
+        }
+    }
+
+    private AttachmentReference getAttachmentReference(Path relativeFolder)
+    {
+        // <wiki>/<space>.../<page>/(thumbnails|csv)/<attachment>
+        int depth = relativeFolder.getNameCount();
+        List<String> segments = new ArrayList<>();
+        for (Path segment : relativeFolder) {
+            segments.add(decode(segment.toString()));
+        }
+        DocumentReference documentReference =
+            new DocumentReference(segments.get(0), segments.subList(1, depth - 3), segments.get(depth - 3));
+        // The attachment name is encoded by the TemporaryFileManager and then by the temporary resource store.
+        return new AttachmentReference(decode(segments.get(depth - 1)), documentReference);
+    }
+
+    private static String decode(String value)
+    {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
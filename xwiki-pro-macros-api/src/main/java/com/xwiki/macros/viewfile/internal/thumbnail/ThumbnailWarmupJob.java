@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Pre-generates the thumbnails of the attachments of a wiki or of a space, so that the {@code view-file} macros don't
+ * have to wait for them when first displayed. The attachments are processed one at a time, in the order of their
+ * document and file names, and the last processed attachment is saved so that an interrupted run can be resumed.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component
+@Named(ThumbnailWarmupJob.JOB_TYPE)
+public class ThumbnailWarmupJob extends AbstractJob<ThumbnailWarmupRequest, ThumbnailWarmupJobStatus>
+{
+    /**
+     * The type of the job.
+     */
+    public static final String JOB_TYPE = "viewfile.thumbnail.warmup";
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final long RETRY_DELAY = 1000L;
+
+    private static final long GENERATION_TIMEOUT = 10L;
+
+    private static final String LAST_DOCUMENT = "lastDocument";
+
+    private static final String LAST_ATTACHMENT = "lastAttachment";
+
+    private static final String SPACE = "space";
+
+    private static final String SPACE_PREFIX = "spacePrefix";
+
+    private static final String OR = " or ";
+
+    @Inject
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @Inject
+    private TemporaryFileManager temporaryFileManager;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    private List<String> extensions;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    protected ThumbnailWarmupJobStatus createNewStatus(ThumbnailWarmupRequest request)
+    {
+        Job currentJob = this.jobContext.getCurrentJob();
+        JobStatus currentJobStatus = currentJob != null ? currentJob.getStatus() : null;
+        ThumbnailWarmupJobStatus status = new ThumbnailWarmupJobStatus(JOB_TYPE, request, currentJobStatus,
+            this.observationManager, this.loggerManager);
+        // A canceled run can be resumed later from its checkpoint.
+        status.setCancelable(true);
+        return status;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        XWikiContext wikiContext = this.wikiContextProvider.get();
+        wikiContext.setWikiId(this.request.getWiki());
+        wikiContext.setUserReference(this.request.getUserReference());
+        this.extensions = new ArrayList<>(this.thumbnailGeneratorManager.getSupportedExtensions());
+
+        File checkpoint = getCheckpointFile();
+        String[] cursor = this.request.isResume() ? readCheckpoint(checkpoint) : null;
+        if (cursor != null) {
+            this.logger.info("Resuming after the attachment [{}] of [{}].", cursor[1], cursor[0]);
+        }
+
+        int count = countAttachments(cursor);
+        this.status.setAttachmentCount(count);
+        this.logger.info("Found [{}] attachments supporting thumbnails.", count);
+        if (this.request.isDryRun()) {
+            return;
+        }
+
+        this.progressManager.pushLevelProgress(count, this);
+        try {
+            List<Object[]> batch = getAttachments(cursor);
+            while (!batch.isEmpty()) {
+                for (Object[] row : batch) {
+                    if (this.status.isCanceled()) {
+                        this.logger.info("The thumbnail warm-up was canceled, it can be resumed later.");
+                        return;
+                    }
+                    this.progressManager.startStep(this);
+                    cursor = new String[] { (String) row[0], (String) row[1] };
+                    processAttachment(cursor[0], cursor[1]);
+                    writeCheckpoint(checkpoint, cursor);
+                    this.progressManager.endStep(this);
+                }
+                batch = getAttachments(cursor);
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+
+        Files.deleteIfExists(checkpoint.toPath());
+        this.logger.info("Generated [{}] thumbnails, [{}] already existed and [{}] failed.",
+            this.status.getGeneratedCount(), this.status.getExistingCount(), this.status.getFailedCount());
+    }
+
+    private void processAttachment(String documentName, String fileName) throws InterruptedException
+    {
+        DocumentReference documentReference =
+            this.documentReferenceResolver.resolve(documentName, new WikiReference(this.request.getWiki()));
+        AttachmentReference attachmentReference = new AttachmentReference(fileName, documentReference);
+        try {
+            if (this.temporaryFileManager.thumbnailFileExists(attachmentReference)) {
+                this.status.incrementExisting();
+                return;
+            }
+            String url = schedule(attachmentReference).get(GENERATION_TIMEOUT, TimeUnit.MINUTES);
+            if (StringUtils.isEmpty(url)) {
+                this.status.incrementFailed();
+            } else {
+                this.status.incrementGenerated();
+            }
+            if (this.request.getThrottleDelay() > 0) {
+                Thread.sleep(this.request.getThrottleDelay());
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (TimeoutException e) {
+            this.status.incrementFailed();
+            this.logger.warn("Timed out while generating the thumbnail of [{}].", attachmentReference);
+        } catch (Exception e) {
+            this.status.incrementFailed();
+            this.logger.warn("Failed to generate the thumbnail of [{}]. Root cause is: [{}]", attachmentReference,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Wait for room in the generation queue instead of skipping the attachment when the wiki is busy.
+     */
+    private CompletableFuture<String> schedule(AttachmentReference attachmentReference) throws Exception
+    {
+        while (true) {
+            try {
+                return this.thumbnailGeneratorManager.scheduleThumbnail(attachmentReference);
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(Math.max(this.request.getThrottleDelay(), RETRY_DELAY));
+            }
+        }
+    }
+
+    private int countAttachments(String[] cursor) throws QueryException
+    {
+        List<Long> results = createQuery("select count(*) ", cursor, "").execute();
+        return results.isEmpty() ? 0 : results.get(0).intValue();
+    }
+
+    private List<Object[]> getAttachments(String[] cursor) throws QueryException
+    {
+        return createQuery("select doc.fullName, attachment.filename ", cursor,
+            " order by doc.fullName, attachment.filename").setLimit(BATCH_SIZE).execute();
+    }
+
+    private Query createQuery(String select, String[] cursor, String orderBy) throws QueryException
+    {
+        StringBuilder statement = new StringBuilder(select);
+        statement.append("from XWikiDocument doc, XWikiAttachment attachment where attachment.docId = doc.id and (");
+        for (int i = 0; i < this.extensions.size(); i++) {
+            statement.append(i > 0 ? OR : "").append("lower(attachment.filename) like :extension").append(i);
+        }
+        statement.append(')');
+        String space = this.request.getSpace();
+        if (space != null) {
+            statement.append(" and (doc.space = :space or doc.space like :spacePrefix escape '!')");
+        }
+        if (cursor != null) {
+            statement.append(" and (doc.fullName > :lastDocument or (doc.fullName = :lastDocument"
+                + " and attachment.filename > :lastAttachment))");
+        }
+        statement.append(orderBy);
+
+        Query query = this.queryManager.createQuery(statement.toString(), Query.HQL);
+        query.setWiki(this.request.getWiki());
+        for (int i = 0; i < this.extensions.size(); i++) {
+            query.bindValue("extension" + i, "%." + this.extensions.get(i));
+        }
+        if (space != null) {
+            query.bindValue(SPACE, space);
+            query.bindValue(SPACE_PREFIX,
+                space.replace("!", "!!").replace("%", "!%").replace("_", "!_") + ".%");
+        }
+        if (cursor != null) {
+            query.bindValue(LAST_DOCUMENT, cursor[0]);
+            query.bindValue(LAST_ATTACHMENT, cursor[1]);
+        }
+        return query;
+    }
+
+    private File getCheckpointFile()
+    {
+        String name = URLEncoder.encode(String.join("/", getRequest().getId()), StandardCharsets.UTF_8);
+        return new File(this.environment.getPermanentDirectory(),
+            String.format("%s/warmup/%s.txt", TemporaryFileManager.MODULE_ID, name));
+    }
+
+    private String[] readCheckpoint(File checkpoint)
+    {
+        if (checkpoint.exists()) {
+            try {
+                List<String> lines = Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8);
+                if (lines.size() == 2) {
+                    return lines.toArray(new String[0]);
+                }
+            } catch (IOException e) {
+                this.logger.warn("Failed to read the thumbnail warm-up checkpoint [{}]. Root cause is: [{}]",
+                    checkpoint, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        return null;
+    }
+
+    private void writeCheckpoint(File checkpoint, String[] cursor)
+    {
+        try {
+            Files.createDirectories(checkpoint.getParentFile().toPath());
+            Files.write(checkpoint.toPath(), List.of(cursor), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the thumbnail warm-up checkpoint [{}]. Root cause is: [{}]", checkpoint,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
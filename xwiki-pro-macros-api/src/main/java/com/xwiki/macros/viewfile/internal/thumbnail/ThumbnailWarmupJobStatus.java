@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+
+/**
+ * Status of the {@link ThumbnailWarmupJob}, counting the processed attachments.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public class ThumbnailWarmupJobStatus extends DefaultJobStatus<ThumbnailWarmupRequest>
+{
+    private int attachmentCount;
+
+    private final AtomicInteger generatedCount = new AtomicInteger();
+
+    private final AtomicInteger existingCount = new AtomicInteger();
+
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    /**
+     * @param jobType the type of the job
+     * @param request the request provided when the job was started
+     * @param parentJobStatus the status of the parent job
+     * @param observationManager the observation manager component
+     * @param loggerManager the logger manager component
+     */
+    public ThumbnailWarmupJobStatus(String jobType, ThumbnailWarmupRequest request, JobStatus parentJobStatus,
+        ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(jobType, request, parentJobStatus, observationManager, loggerManager);
+    }
+
+    /**
+     * @return the number of attachments left to process when the job started, which is the result of a dry run
+     */
+    public int getAttachmentCount()
+    {
+        return this.attachmentCount;
+    }
+
+    /**
+     * @param attachmentCount the number of attachments left to process
+     */
+    public void setAttachmentCount(int attachmentCount)
+    {
+        this.attachmentCount = attachmentCount;
+    }
+
+    /**
+     * @return the number of thumbnails generated by the job
+     */
+    public int getGeneratedCount()
+    {
+        return this.generatedCount.get();
+    }
+
+    /**
+     * @return the number of attachments skipped because their thumbnail already existed
+     */
+    public int getExistingCount()
+    {
+        return this.existingCount.get();
+    }
+
+    /**
+     * @return the number of attachments whose thumbnail couldn't be generated
+     */
+    public int getFailedCount()
+    {
+        return this.failedCount.get();
+    }
+
+    void incrementGenerated()
+    {
+        this.generatedCount.incrementAndGet();
+    }
+
+    void incrementExisting()
+    {
+        this.existingCount.incrementAndGet();
+    }
+
+    void incrementFailed()
+    {
+        this.failedCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request of the {@link ThumbnailWarmupJob}.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public class ThumbnailWarmupRequest extends AbstractRequest
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final String PROPERTY_WIKI = "wiki";
+
+    private static final String PROPERTY_SPACE = "space";
+
+    private static final String PROPERTY_DRY_RUN = "dryRun";
+
+    private static final String PROPERTY_THROTTLE_DELAY = "throttleDelay";
+
+    private static final String PROPERTY_RESUME = "resume";
+
+    private static final String PROPERTY_USER_REFERENCE = "userReference";
+
+    /**
+     * Default constructor.
+     */
+    public ThumbnailWarmupRequest()
+    {
+        setResume(true);
+    }
+
+    /**
+     * @param wiki the wiki whose attachments are processed
+     * @param space the local reference of the space whose attachments are processed, including its nested spaces, or
+     *     {@code null} to process the whole wiki
+     * @return the identifier of the warm-up job of the given wiki or space
+     */
+    public static List<String> getJobId(String wiki, String space)
+    {
+        List<String> jobId = new ArrayList<>(List.of("viewfile", "thumbnail", "warmup", wiki));
+        if (space != null) {
+            jobId.add(space);
+        }
+        return jobId;
+    }
+
+    /**
+     * @return the wiki whose attachments are processed
+     */
+    public String getWiki()
+    {
+        return getProperty(PROPERTY_WIKI);
+    }
+
+    /**
+     * @param wiki the wiki whose attachments are processed
+     */
+    public void setWiki(String wiki)
+    {
+        setProperty(PROPERTY_WIKI, wiki);
+    }
+
+    /**
+     * @return the local reference of the space whose attachments are processed, including its nested spaces, or
+     *     {@code null} to process the whole wiki
+     */
+    public String getSpace()
+    {
+        return getProperty(PROPERTY_SPACE);
+    }
+
+    /**
+     * @param space the local reference of the space whose attachments are processed, including its nested spaces,
+     *     or {@code null} to process the whole wiki
+     */
+    public void setSpace(String space)
+    {
+        setProperty(PROPERTY_SPACE, space);
+    }
+
+    /**
+     * @return {@code true} if the job should only count the attachments supporting thumbnails, including the ones
+     *     whose thumbnail already exists
+     */
+    public boolean isDryRun()
+    {
+        return getProperty(PROPERTY_DRY_RUN, false);
+    }
+
+    /**
+     * @param dryRun {@code true} if the job should only count the attachments supporting thumbnails, including the
+     *     ones whose thumbnail already exists
+     */
+    public void setDryRun(boolean dryRun)
+    {
+        setProperty(PROPERTY_DRY_RUN, dryRun);
+    }
+
+    /**
+     * @return the number of milliseconds to wait after each generated thumbnail, to limit the load on the server
+     */
+    public long getThrottleDelay()
+    {
+        return getProperty(PROPERTY_THROTTLE_DELAY, 0L);
+    }
+
+    /**
+     * @param throttleDelay the number of milliseconds to wait after each generated thumbnail
+     */
+    public void setThrottleDelay(long throttleDelay)
+    {
+        setProperty(PROPERTY_THROTTLE_DELAY, throttleDelay);
+    }
+
+    /**
+     * @return {@code true} if the job should continue after the last attachment processed by a previous interrupted
+     *     run, {@code false} to start over
+     */
+    public boolean isResume()
+    {
+        return getProperty(PROPERTY_RESUME, true);
+    }
+
+    /**
+     * @param resume {@code true} if the job should continue after the last attachment processed by a previous
+     *     interrupted run, {@code false} to start over
+     */
+    public void setResume(boolean resume)
+    {
+        setProperty(PROPERTY_RESUME, resume);
+    }
+
+    /**
+     * @return the user on behalf of whom the thumbnails are generated
+     */
+    public DocumentReference getUserReference()
+    {
+        return getProperty(PROPERTY_USER_REFERENCE);
+    }
+
+    /**
+     * @param userReference the user on behalf of whom the thumbnails are generated
+     */
+    public void setUserReference(DocumentReference userReference)
+    {
+        setProperty(PROPERTY_USER_REFERENCE, userReference);
+    }
+}
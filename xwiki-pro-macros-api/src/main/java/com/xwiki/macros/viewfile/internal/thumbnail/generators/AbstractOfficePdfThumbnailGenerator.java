@@ -45,26 +45,47 @@ import net.coobird.thumbnailator.Thumbnails;
  */
 public abstract class AbstractOfficePdfThumbnailGenerator implements ThumbnailGenerator
 {
+    /**
+     * Maximum width of the generated thumbnails, in pixels.
+     *
+     * @since 1.31.3
+     */
+    public static final int THUMBNAIL_WIDTH = 150;
+
+    /**
+     * Maximum height of the generated thumbnails, in pixels.
+     *
+     * @since 1.31.3
+     */
+    public static final int THUMBNAIL_HEIGHT = 212;
+
     @Inject
     protected Provider<XWikiContext> wikiContextProvider;
 
     @Inject
-    private TemporaryFileManager temporaryFileManager;
+    protected TemporaryFileManager temporaryFileManager;
 
     @Override
     public String generateThumbnail(AttachmentReference attachmentReference) throws Exception
+    {
+        return generateThumbnail(attachmentReference, this.temporaryFileManager.getVersionKey(attachmentReference));
+    }
+
+    @Override
+    public String generateThumbnail(AttachmentReference attachmentReference, String versionKey) throws Exception
     {
         return null;
     }
 
-    protected String saveThumbnail(BufferedImage firstPage, AttachmentReference attachmentReference) throws Exception
+    protected String saveThumbnail(BufferedImage firstPage, AttachmentReference attachmentReference,
+        String versionKey) throws Exception
     {
         // Resize to thumbnail
-        BufferedImage resized = Thumbnails.of(firstPage).size(150, 212).asBufferedImage();
+        BufferedImage resized = Thumbnails.of(firstPage).size(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT).asBufferedImage();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(resized, JPG, baos);
         try (InputStream is = new ByteArrayInputStream(baos.toByteArray())) {
-            return this.temporaryFileManager.createThumbnail(attachmentReference, is);
+            return this.temporaryFileManager.createThumbnail(attachmentReference, versionKey, is);
         }
     }
 }
@@ -19,25 +19,30 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
-import java.awt.Image;
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import javax.swing.ImageIcon;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.AttachmentReference;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
 
@@ -65,11 +70,19 @@ public class OfficeThumbnailGenerator extends AbstractOfficePdfThumbnailGenerato
     private Logger logger;
 
     @Override
-    public String generateThumbnail(AttachmentReference attachmentReference) throws Exception
+    public String generateThumbnail(AttachmentReference attachmentReference, String versionKey) throws Exception
     {
         if (officeUtils.isOfficeServerConnected()) {
-            byte[] bais = getJPEGContent(attachmentReference);
-            return saveThumbnail(getBufferedImage(bais), attachmentReference);
+            XWikiContext wikiContext = wikiContextProvider.get();
+            XWikiDocument document =
+                wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
+            XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+            if (attachment == null) {
+                // The attachment was deleted since the generation was scheduled.
+                return "";
+            }
+            byte[] bais = getJPEGContent(attachment, wikiContext);
+            return saveThumbnail(getBufferedImage(bais), attachmentReference, versionKey);
         } else {
             logger.warn("Unable to generate thumbnail for office file [{}]. Office server is not connected.",
                 attachmentReference.toString());
@@ -77,33 +90,69 @@ public class OfficeThumbnailGenerator extends AbstractOfficePdfThumbnailGenerato
         }
     }
 
-    private byte[] getJPEGContent(AttachmentReference attachmentReference) throws Exception
+    private byte[] getJPEGContent(XWikiAttachment attachment, XWikiContext wikiContext) throws Exception
     {
-        XWikiContext wikiContext = wikiContextProvider.get();
-        XWikiDocument document =
-            wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
-        try (InputStream is = document.getAttachment(attachmentReference.getName()).getContentInputStream(wikiContext))
-        {
+        try (InputStream is = attachment.getContentInputStream(wikiContext)) {
             return officeUtils.getImageBytes(is);
         }
     }
 
     private BufferedImage getBufferedImage(byte[] result) throws Exception
     {
-        byte[] imageBytes = getImageBytes(result);
-        Image image = new ImageIcon(imageBytes).getImage();
-        BufferedImage buffered =
-            new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics = buffered.createGraphics();
-        graphics.drawImage(image, 0, 0, null);
-        graphics.dispose();
-        return buffered;
+        return readImage(getImageBytes(result));
+    }
+
+    /**
+     * Decode the given image with ImageIO, skipping the pixels that are not needed for the thumbnail.
+     *
+     * @param imageBytes the encoded image
+     * @return the decoded image, subsampled so that it is still at least as big as the thumbnail
+     * @throws IOException if the image can't be decoded
+     */
+    static BufferedImage readImage(byte[] imageBytes) throws IOException
+    {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format returned by the office server.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int subsampling = Math.max(1,
+                    Math.min(reader.getWidth(0) / THUMBNAIL_WIDTH, reader.getHeight(0) / THUMBNAIL_HEIGHT));
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return removeAlpha(reader.read(0, readParam));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * The JPEG writer doesn't support transparency, so images with an alpha channel are drawn on a white background.
+     */
+    private static BufferedImage removeAlpha(BufferedImage image)
+    {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = opaque.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return opaque;
     }
 
     private byte[] getImageBytes(byte[] result) throws IOException
     {
         byte[] imageBytes;
 
+        // Office servers ignoring the page range of the export return a ZIP with an image per page.
         if (isZip(result)) {
             try (ByteArrayInputStream bis = new ByteArrayInputStream(result); ZipInputStream zis = new ZipInputStream(
                 bis))
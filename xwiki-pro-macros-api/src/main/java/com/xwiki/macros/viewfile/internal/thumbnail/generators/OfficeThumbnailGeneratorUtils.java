@@ -21,22 +21,30 @@ package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.jodconverter.core.document.DefaultDocumentFormatRegistry;
 import org.jodconverter.core.office.OfficeException;
 import org.jodconverter.core.office.OfficeManager;
 import org.jodconverter.local.LocalConverter;
 import org.jodconverter.local.office.ExternalOfficeManager;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.officeimporter.server.OfficeServer;
 import org.xwiki.officeimporter.server.OfficeServerConfiguration;
 import org.xwiki.stability.Unstable;
 
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
+
 /**
- * Office thumbnail generator utility methods.
+ * Office thumbnail generator utility methods. The office manager is shared by all the thumbnail generations and
+ * connects to all the configured office server ports, so that conversions can run in parallel.
  *
  * @version $Id$
  * @since 1.29.0
@@ -44,8 +52,20 @@ import org.xwiki.stability.Unstable;
 @Component(roles = OfficeThumbnailGeneratorUtils.class)
 @Singleton
 @Unstable
-public class OfficeThumbnailGeneratorUtils
+public class OfficeThumbnailGeneratorUtils implements Disposable
 {
+    /**
+     * Export only the first page, or the first sheet of a spreadsheet, since the other pages are not needed for the
+     * thumbnail. Office servers not supporting the page range still export all the pages, in a ZIP.
+     */
+    static final Map<String, Object> FIRST_PAGE_STORE_PROPERTIES =
+        Map.of("FilterData", Map.of("PageRange", "1"));
+
+    /**
+     * The number of milliseconds during which the office server state is reused before being refreshed.
+     */
+    private static final long STATE_CACHE_DURATION = 5000L;
+
     /**
      * The office server configuration.
      */
@@ -55,21 +75,47 @@ public class OfficeThumbnailGeneratorUtils
     @Inject
     private OfficeServer officeServer;
 
+    @Inject
+    private ThumbnailMetrics metrics;
+
+    @Inject
+    private Logger logger;
+
     private OfficeManager officeManager;
 
+    private volatile boolean connected;
+
+    private volatile long stateExpirationTime;
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        stopOfficeManager();
+    }
+
     /**
-     * Check if the office server is connected to the instance.
+     * Check if the office server is connected to the instance. The state of the office server is refreshed at most
+     * every few seconds.
      *
      * @return {@code true} if the office server is connected, or {@code false} otherwise.
      */
     public boolean isOfficeServerConnected()
     {
-        this.officeServer.refreshState();
-        return this.officeServer.getState() == OfficeServer.ServerState.CONNECTED;
+        long now = System.currentTimeMillis();
+        if (now >= this.stateExpirationTime) {
+            this.officeServer.refreshState();
+            this.connected = this.officeServer.getState() == OfficeServer.ServerState.CONNECTED;
+            this.stateExpirationTime = now + STATE_CACHE_DURATION;
+            if (!this.connected) {
+                // Connect again from scratch once the office server is back.
+                stopOfficeManager();
+            }
+        }
+        return this.connected;
     }
 
     /**
-     * Convert a given {@link InputStream} to a JPEG file, using LibreOffice.
+     * Convert the first page of a given {@link InputStream} to a JPEG file, using LibreOffice.
      *
      * @param is content that needs to be converted
      * @return the result of the conversion to JPEG
@@ -79,31 +125,65 @@ public class OfficeThumbnailGeneratorUtils
     {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         OfficeManager manager = getOfficeManager();
-        LocalConverter.make(manager).convert(is).to(baos).as(DefaultDocumentFormatRegistry.JPEG).execute();
+        long startTime = System.currentTimeMillis();
+        try {
+            LocalConverter.builder().officeManager(manager).storeProperties(FIRST_PAGE_STORE_PROPERTIES).build()
+                .convert(is).to(baos).as(DefaultDocumentFormatRegistry.JPEG).execute();
+        } catch (OfficeException | RuntimeException e) {
+            if (isConnectionLost(e)) {
+                // The office server was restarted, the connections of the current manager can't be used anymore.
+                stopOfficeManager(manager);
+            }
+            throw e;
+        } finally {
+            this.metrics.recordOfficeConversion(System.currentTimeMillis() - startTime);
+        }
         return baos.toByteArray();
     }
 
-    private void initialize() throws OfficeException
+    private synchronized OfficeManager getOfficeManager() throws OfficeException
     {
-        if (isOfficeServerConnected()) {
-            // Set an execution timeout equivalent to 10 seconds.
-            officeManager = ExternalOfficeManager.builder().portNumbers(officeServerConfig.getServerPorts())
-                .taskExecutionTimeout(10000L).build();
-            try {
-                officeManager.start();
-            } catch (OfficeException e) {
-                throw new RuntimeException(e);
+        if (this.officeManager == null || !this.officeManager.isRunning()) {
+            if (!isOfficeServerConnected()) {
+                throw new OfficeException("Office server is not connected.");
             }
-        } else {
-            throw new OfficeException("Office server is not connected.");
+            // Set an execution timeout equivalent to 10 seconds.
+            OfficeManager manager = ExternalOfficeManager.builder()
+                .portNumbers(this.officeServerConfig.getServerPorts()).taskExecutionTimeout(10000L).build();
+            manager.start();
+            this.officeManager = manager;
         }
+        return this.officeManager;
     }
 
-    private OfficeManager getOfficeManager() throws OfficeException
+    private boolean isConnectionLost(Exception e)
     {
-        if (officeManager == null || !officeManager.isRunning()) {
-            initialize();
+        // UNO reports the connections closed by a restarted office server with a DisposedException.
+        if (ExceptionUtils.getThrowableList(e).stream()
+            .anyMatch(cause -> "com.sun.star.lang.DisposedException".equals(cause.getClass().getName())))
+        {
+            return true;
+        }
+        // Check the office server state right away instead of waiting for the cached state to expire.
+        this.stateExpirationTime = 0;
+        return !isOfficeServerConnected();
+    }
+
+    private synchronized void stopOfficeManager()
+    {
+        stopOfficeManager(this.officeManager);
+    }
+
+    private synchronized void stopOfficeManager(OfficeManager manager)
+    {
+        if (manager != null && manager == this.officeManager) {
+            this.officeManager = null;
+            try {
+                manager.stop();
+            } catch (OfficeException e) {
+                this.logger.warn("Failed to stop the thumbnail office manager. Root cause is: [{}]",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
         }
-        return officeManager;
     }
 }
@@ -19,9 +19,13 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
+import java.io.File;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 /**
@@ -35,6 +39,8 @@ import org.apache.pdfbox.pdmodel.PDDocument;
  */
 public final class PDDocumentFactory
 {
+    private static final String LOAD_PDF = "loadPDF";
+
     private PDDocumentFactory()
     {
     }
@@ -44,21 +50,135 @@ public final class PDDocumentFactory
      * @return a PDF file.
      */
     public static PDDocument load(InputStream content) throws Exception
+    {
+        return load(content, -1);
+    }
+
+    /**
+     * Load a PDF from a stream. The stream is read entirely, so this should only be used for small files.
+     *
+     * @param content content of the file
+     * @param maxMainMemory the maximum number of bytes of heap used by the buffers of the parser before switching to
+     *     temporary files, or a negative value to only use the heap
+     * @return a PDF file.
+     * @since 1.31.3
+     */
+    public static PDDocument load(InputStream content, long maxMainMemory) throws Exception
+    {
+        if (PdfBox3.LOADER != null) {
+            Object buffer = PdfBox3.READ_BUFFER_CONSTRUCTOR.newInstance(content);
+            return invoke(PdfBox3.LOAD_FROM_READ_BUFFER, buffer);
+        }
+        // PDFBox 2.x fallback
+        return PDDocument.load(content, getMemoryUsageSetting(maxMainMemory));
+    }
+
+    /**
+     * Load a PDF from a file, reading it on demand instead of copying it to the heap.
+     *
+     * @param file the PDF file
+     * @param maxMainMemory the maximum number of bytes of heap used by the buffers of the parser before switching to
+     *     temporary files, or a negative value to only use the heap
+     * @return a PDF file.
+     * @since 1.31.3
+     */
+    public static PDDocument load(File file, long maxMainMemory) throws Exception
+    {
+        if (PdfBox3.LOADER != null) {
+            Object streamCache = getStreamCache(maxMainMemory);
+            if (PdfBox3.LOAD_FROM_FILE_WITH_CACHE != null && streamCache != null) {
+                return invoke(PdfBox3.LOAD_FROM_FILE_WITH_CACHE, file, streamCache);
+            }
+            return invoke(PdfBox3.LOAD_FROM_FILE, file);
+        }
+        // PDFBox 2.x fallback
+        return PDDocument.load(file, getMemoryUsageSetting(maxMainMemory));
+    }
+
+    private static MemoryUsageSetting getMemoryUsageSetting(long maxMainMemory)
+    {
+        return maxMainMemory < 0 ? MemoryUsageSetting.setupMainMemoryOnly()
+            : MemoryUsageSetting.setupMixed(maxMainMemory);
+    }
+
+    /**
+     * PDFBox 3 exposes the scratch buffer configuration as a stream cache factory on the memory usage setting.
+     */
+    private static Object getStreamCache(long maxMainMemory)
+    {
+        MemoryUsageSetting memoryUsageSetting = getMemoryUsageSetting(maxMainMemory);
+        try {
+            return memoryUsageSetting.getClass().getField("streamCache").get(memoryUsageSetting);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static PDDocument invoke(Method loadMethod, Object... arguments) throws Exception
     {
         try {
-            Class<?> loaderClass = Class.forName("org.apache.pdfbox.Loader");
+            return (PDDocument) loadMethod.invoke(null, arguments);
+        } catch (InvocationTargetException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * The PDFBox 3 loading methods, looked up once.
+     */
+    private static final class PdfBox3
+    {
+        private static final Class<?> LOADER = findClass("org.apache.pdfbox.Loader");
 
-            Class<?> rarClass = Class.forName("org.apache.pdfbox.io.RandomAccessReadBuffer");
-            Object rarInstance = rarClass.getConstructor(InputStream.class).newInstance(content);
+        private static final Constructor<?> READ_BUFFER_CONSTRUCTOR;
 
-            Class<?> rarInterface = Class.forName("org.apache.pdfbox.io.RandomAccessRead");
+        private static final Method LOAD_FROM_READ_BUFFER;
 
-            Method loadMethod = loaderClass.getMethod("loadPDF", rarInterface);
+        private static final Method LOAD_FROM_FILE;
+
+        private static final Method LOAD_FROM_FILE_WITH_CACHE;
+
+        static {
+            Constructor<?> readBufferConstructor = null;
+            Method loadFromReadBuffer = null;
+            Method loadFromFile = null;
+            Method loadFromFileWithCache = null;
+            if (LOADER != null) {
+                try {
+                    readBufferConstructor = Class.forName("org.apache.pdfbox.io.RandomAccessReadBuffer")
+                        .getConstructor(InputStream.class);
+                    loadFromReadBuffer =
+                        LOADER.getMethod(LOAD_PDF, Class.forName("org.apache.pdfbox.io.RandomAccessRead"));
+                    loadFromFile = LOADER.getMethod(LOAD_PDF, File.class);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Unsupported PDFBox version.", e);
+                }
+                for (Method method : LOADER.getMethods()) {
+                    Class<?>[] parameters = method.getParameterTypes();
+                    if (LOAD_PDF.equals(method.getName()) && parameters.length == 2 && parameters[0] == File.class
+                        && parameters[1].getSimpleName().equals("StreamCacheCreateFunction"))
+                    {
+                        loadFromFileWithCache = method;
+                    }
+                }
+            }
+            READ_BUFFER_CONSTRUCTOR = readBufferConstructor;
+            LOAD_FROM_READ_BUFFER = loadFromReadBuffer;
+            LOAD_FROM_FILE = loadFromFile;
+            LOAD_FROM_FILE_WITH_CACHE = loadFromFileWithCache;
+        }
+
+        private PdfBox3()
+        {
+        }
 
-            return (PDDocument) loadMethod.invoke(null, rarInstance);
-        } catch (ClassNotFoundException e) {
-            // PDFBox 2.x fallback
-            return PDDocument.load(content);
+        private static Class<?> findClass(String className)
+        {
+            try {
+                return Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
         }
     }
 }
@@ -19,18 +19,30 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.AttachmentReference;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
 
 /**
@@ -49,18 +61,83 @@ public class PdfThumbnailGenerator extends AbstractOfficePdfThumbnailGenerator
      */
     public static final String HINT = "pdf";
 
+    @Inject
+    private ViewFileConfiguration configuration;
+
     @Override
-    public String generateThumbnail(AttachmentReference attachmentReference) throws Exception
+    public String generateThumbnail(AttachmentReference attachmentReference, String versionKey) throws Exception
     {
         XWikiContext wikiContext = wikiContextProvider.get();
         XWikiDocument document =
             wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
-        InputStream is = document.getAttachment(attachmentReference.getName()).getContentInputStream(wikiContext);
-        // Load the PDF document.
-        try (PDDocument pdDoc = PDDocumentFactory.load(is)) {
-            PDFRenderer pdfRenderer = new PDFRenderer(pdDoc);
-            // Select the first page (index starts at 0).
-            return saveThumbnail(pdfRenderer.renderImageWithDPI(0, 150), attachmentReference);
+        XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+        if (attachment == null) {
+            // The attachment was deleted since the generation was scheduled.
+            return "";
+        }
+        long maxMainMemory = this.configuration.getPdfMaxMainMemory();
+        File spooledFile = null;
+        try {
+            PDDocument pdDoc;
+            try (InputStream is = attachment.getContentInputStream(wikiContext)) {
+                if (attachment.getLongSize() > this.configuration.getThumbnailSpoolThreshold()) {
+                    // Large PDFs are parsed from a temporary file, read on demand, instead of being copied in memory.
+                    spooledFile = this.temporaryFileManager.spool(is, ".pdf");
+                    pdDoc = PDDocumentFactory.load(spooledFile, maxMainMemory);
+                } else {
+                    pdDoc = PDDocumentFactory.load(is, maxMainMemory);
+                }
+            }
+            try (PDDocument loadedDoc = pdDoc) {
+                BufferedImage firstPage = renderFirstPage(loadedDoc, this.configuration.isPdfFastRenderingEnabled());
+                return saveThumbnail(firstPage, attachmentReference, versionKey);
+            }
+        } finally {
+            if (spooledFile != null) {
+                Files.deleteIfExists(spooledFile.toPath());
+            }
+        }
+    }
+
+    /**
+     * Render the first page of the given document directly at the thumbnail size, so that the rendered image doesn't
+     * depend on the page size.
+     *
+     * @param document the PDF document
+     * @param fastRendering {@code true} to allow image subsampling and speed oriented rendering hints
+     * @return the image of the first page, fitting the thumbnail size
+     * @throws IOException if the page can't be rendered
+     */
+    static BufferedImage renderFirstPage(PDDocument document, boolean fastRendering) throws IOException
+    {
+        PDFRenderer pdfRenderer = new PDFRenderer(document);
+        if (fastRendering) {
+            pdfRenderer.setSubsamplingAllowed(true);
+            pdfRenderer.setRenderingHints(new RenderingHints(
+                Map.of(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED,
+                    RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+                    RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)));
+        }
+        // Select the first page (index starts at 0).
+        return pdfRenderer.renderImage(0, getRenderScale(document.getPage(0)), ImageType.RGB);
+    }
+
+    /**
+     * @param page a PDF page
+     * @return the scale at which the page fits the thumbnail size, 1 being 72 DPI
+     */
+    static float getRenderScale(PDPage page)
+    {
+        PDRectangle cropBox = page.getCropBox();
+        float width = cropBox.getWidth();
+        float height = cropBox.getHeight();
+        if (page.getRotation() % 180 != 0) {
+            width = cropBox.getHeight();
+            height = cropBox.getWidth();
+        }
+        if (width <= 0 || height <= 0) {
+            return 1F;
         }
+        return Math.min(THUMBNAIL_WIDTH / width, THUMBNAIL_HEIGHT / height);
     }
 }
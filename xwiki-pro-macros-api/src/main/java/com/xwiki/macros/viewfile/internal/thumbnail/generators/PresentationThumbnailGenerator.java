@@ -19,13 +19,17 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
-import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Files;
 
 import javax.imageio.ImageIO;
 import javax.inject.Inject;
@@ -34,7 +38,9 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.poi.hslf.usermodel.HSLFSlideShow;
-import org.apache.poi.sl.usermodel.Slide;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.sl.usermodel.SlideShow;
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
 import org.slf4j.Logger;
@@ -42,7 +48,9 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.AttachmentReference;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
 import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
 
@@ -77,58 +85,119 @@ public class PresentationThumbnailGenerator implements ThumbnailGenerator
     @Inject
     private Logger logger;
 
+    @Inject
+    private ViewFileConfiguration configuration;
+
     @Override
     public String generateThumbnail(AttachmentReference attachmentReference) throws Exception
     {
+        return generateThumbnail(attachmentReference, this.temporaryFileManager.getVersionKey(attachmentReference));
+    }
 
+    @Override
+    public String generateThumbnail(AttachmentReference attachmentReference, String versionKey) throws Exception
+    {
         XWikiContext wikiContext = wikiContextProvider.get();
         XWikiDocument document =
             wikiContext.getWiki().getDocument(attachmentReference.getDocumentReference(), wikiContext);
         String extension = getExtension(attachmentReference.getName());
-        try (InputStream is = document.getAttachment(attachmentReference.getName())
-            .getContentInputStream(wikiContext))
-        {
-            switch (extension) {
-                case PPT_EXTENSION:
-                    HSLFSlideShow ppt = new HSLFSlideShow(is);
-                    return getSlideThumbnailURL(ppt, attachmentReference);
-                case PPTX_EXTENSION:
-                    XMLSlideShow pptx = new XMLSlideShow(is);
-                    return getSlideThumbnailURL(pptx, attachmentReference);
-                default:
-                    logger.warn("Failed to identify the presentation file extension.");
-                    return "";
+        if (!PPT_EXTENSION.equals(extension) && !PPTX_EXTENSION.equals(extension)) {
+            logger.warn("Failed to identify the presentation file extension.");
+            return "";
+        }
+        XWikiAttachment attachment = document.getAttachment(attachmentReference.getName());
+        if (attachment == null) {
+            // The attachment was deleted since the generation was scheduled.
+            return "";
+        }
+        File spooledFile = null;
+        try (InputStream is = attachment.getContentInputStream(wikiContext)) {
+            if (attachment.getLongSize() > this.configuration.getThumbnailSpoolThreshold()) {
+                // Large decks are opened from a temporary file, so that only the parts of the first slide are read.
+                spooledFile = this.temporaryFileManager.spool(is, "." + extension);
+                return getSlideThumbnailURL(spooledFile, extension, attachmentReference, versionKey);
+            }
+            if (PPT_EXTENSION.equals(extension)) {
+                try (HSLFSlideShow ppt = new HSLFSlideShow(is)) {
+                    return getSlideThumbnailURL(ppt, attachmentReference, versionKey);
+                }
+            } else {
+                try (XMLSlideShow pptx = new XMLSlideShow(is)) {
+                    return getSlideThumbnailURL(pptx, attachmentReference, versionKey);
+                }
+            }
+        } finally {
+            if (spooledFile != null) {
+                Files.deleteIfExists(spooledFile.toPath());
             }
         }
     }
 
-    private String getSlideThumbnailURL(SlideShow<?, ?> pptx, AttachmentReference attachmentReference) throws Exception
+    private String getSlideThumbnailURL(File file, String extension, AttachmentReference attachmentReference,
+        String versionKey) throws Exception
     {
-        Slide<?, ?> slide = pptx.getSlides().get(0);
-        int width = pptx.getPageSize().width;
-        int height = pptx.getPageSize().height;
-        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics = getGraphics2D(img, width, height);
-        slide.draw(graphics);
+        if (PPT_EXTENSION.equals(extension)) {
+            try (POIFSFileSystem fileSystem = new POIFSFileSystem(file, true);
+                HSLFSlideShow ppt = new HSLFSlideShow(fileSystem))
+            {
+                return getSlideThumbnailURL(ppt, attachmentReference, versionKey);
+            }
+        } else {
+            OPCPackage pptxPackage = OPCPackage.open(file, PackageAccess.READ);
+            try {
+                return getSlideThumbnailURL(new XMLSlideShow(pptxPackage), attachmentReference, versionKey);
+            } finally {
+                // Close the read-only package without saving it.
+                pptxPackage.revert();
+            }
+        }
+    }
 
-        return createSlideThumbnail(attachmentReference, img);
+    private String getSlideThumbnailURL(SlideShow<?, ?> slideShow, AttachmentReference attachmentReference,
+        String versionKey) throws Exception
+    {
+        return createSlideThumbnail(attachmentReference, versionKey, renderFirstSlide(slideShow));
     }
 
-    private static Graphics2D getGraphics2D(BufferedImage img, int width, int height)
+    /**
+     * Draw the first slide directly at the thumbnail size, instead of drawing it at the page size and resizing it.
+     *
+     * @param slideShow the presentation
+     * @return the image of the first slide, fitting the thumbnail size
+     */
+    static BufferedImage renderFirstSlide(SlideShow<?, ?> slideShow)
     {
+        Dimension pageSize = slideShow.getPageSize();
+        double scale = Math.min((double) AbstractOfficePdfThumbnailGenerator.THUMBNAIL_WIDTH / pageSize.width,
+            (double) AbstractOfficePdfThumbnailGenerator.THUMBNAIL_HEIGHT / pageSize.height);
+        int width = Math.max(1, (int) Math.round(pageSize.width * scale));
+        int height = Math.max(1, (int) Math.round(pageSize.height * scale));
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D graphics = img.createGraphics();
-        graphics.setPaint(Color.white);
-        graphics.fill(new Rectangle2D.Float(0, 0, width, height));
-        return graphics;
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            graphics.setPaint(Color.white);
+            graphics.fill(new Rectangle2D.Float(0, 0, width, height));
+            graphics.scale(scale, scale);
+            slideShow.getSlides().get(0).draw(graphics);
+        } finally {
+            graphics.dispose();
+        }
+        return img;
     }
 
-    private String createSlideThumbnail(AttachmentReference attachmentReference, BufferedImage img) throws Exception
+    private String createSlideThumbnail(AttachmentReference attachmentReference, String versionKey, BufferedImage img)
+        throws Exception
     {
-        BufferedImage resized = Thumbnails.of(img).size(150, 212).asBufferedImage();
+        BufferedImage resized = Thumbnails.of(img).size(AbstractOfficePdfThumbnailGenerator.THUMBNAIL_WIDTH,
+            AbstractOfficePdfThumbnailGenerator.THUMBNAIL_HEIGHT).asBufferedImage();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(resized, JPG, baos);
         try (InputStream is = new ByteArrayInputStream(baos.toByteArray())) {
-            return this.temporaryFileManager.createThumbnail(attachmentReference, is);
+            return this.temporaryFileManager.createThumbnail(attachmentReference, versionKey, is);
         }
     }
 
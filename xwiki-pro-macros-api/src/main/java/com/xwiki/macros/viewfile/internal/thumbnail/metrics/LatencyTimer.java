@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations, keeping their count, mean, maximum and distribution in fixed buckets.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+final class LatencyTimer
+{
+    /**
+     * The upper bounds of the histogram buckets, in milliseconds. The last bucket holds the longer durations.
+     */
+    private static final long[] BUCKETS = { 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+    private final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+
+    LatencyTimer()
+    {
+        for (int i = 0; i < this.histogram.length; i++) {
+            this.histogram[i] = new LongAdder();
+        }
+    }
+
+    void record(long millis)
+    {
+        this.count.increment();
+        this.total.add(millis);
+        this.max.accumulate(millis);
+        int bucket = 0;
+        while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+            bucket++;
+        }
+        this.histogram[bucket].increment();
+    }
+
+    long getCount()
+    {
+        return this.count.sum();
+    }
+
+    double getMean()
+    {
+        long currentCount = this.count.sum();
+        return currentCount > 0 ? (double) this.total.sum() / currentCount : 0D;
+    }
+
+    long getMax()
+    {
+        return this.max.get();
+    }
+
+    Map<String, Long> getHistogram()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKETS.length; i++) {
+            result.put(String.format("<=%dms", BUCKETS[i]), this.histogram[i].sum());
+        }
+        result.put(String.format(">%dms", BUCKETS[BUCKETS.length - 1]), this.histogram[BUCKETS.length].sum());
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * The metrics of one type of thumbnail generator.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public class ThumbnailGeneratorMetrics implements ThumbnailGeneratorMetricsMXBean
+{
+    private final String hint;
+
+    private final IntSupplier queueDepth;
+
+    private final LatencyTimer latency = new LatencyTimer();
+
+    private final LatencyTimer queueWaitTime = new LatencyTimer();
+
+    private final LongAdder generationCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final Map<String, LongAdder> failuresByCause = new ConcurrentHashMap<>();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    ThumbnailGeneratorMetrics(String hint, IntSupplier queueDepth)
+    {
+        this.hint = hint;
+        this.queueDepth = queueDepth;
+    }
+
+    void recordGeneration(long millis, long bytes)
+    {
+        this.generationCount.increment();
+        this.latency.record(millis);
+        this.bytesRead.add(bytes);
+    }
+
+    void recordFailure(long millis, long bytes, String cause)
+    {
+        this.failureCount.increment();
+        this.failuresByCause.computeIfAbsent(cause, key -> new LongAdder()).increment();
+        this.latency.record(millis);
+        this.bytesRead.add(bytes);
+    }
+
+    void recordQueueWait(long millis)
+    {
+        this.queueWaitTime.record(millis);
+    }
+
+    void recordRejection()
+    {
+        this.rejectedCount.increment();
+    }
+
+    @Override
+    public String getHint()
+    {
+        return this.hint;
+    }
+
+    @Override
+    public long getGenerationCount()
+    {
+        return this.generationCount.sum();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return this.failureCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByCause()
+    {
+        Map<String, Long> result = new HashMap<>();
+        this.failuresByCause.forEach((cause, count) -> result.put(cause, count.sum()));
+        return result;
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return this.bytesRead.sum();
+    }
+
+    @Override
+    public double getMeanLatency()
+    {
+        return this.latency.getMean();
+    }
+
+    @Override
+    public long getMaxLatency()
+    {
+        return this.latency.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getLatencyHistogram()
+    {
+        return this.latency.getHistogram();
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return this.queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getRejectedCount()
+    {
+        return this.rejectedCount.sum();
+    }
+
+    @Override
+    public double getMeanQueueWaitTime()
+    {
+        return this.queueWaitTime.getMean();
+    }
+
+    @Override
+    public long getMaxQueueWaitTime()
+    {
+        return this.queueWaitTime.getMax();
+    }
+}
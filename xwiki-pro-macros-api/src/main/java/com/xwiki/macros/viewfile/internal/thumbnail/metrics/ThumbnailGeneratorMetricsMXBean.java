@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.util.Map;
+
+/**
+ * Metrics of the thumbnail generations handled by one type of thumbnail generator, exposed through JMX.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public interface ThumbnailGeneratorMetricsMXBean
+{
+    /**
+     * @return the hint of the thumbnail generator
+     */
+    String getHint();
+
+    /**
+     * @return the number of thumbnails generated successfully
+     */
+    long getGenerationCount();
+
+    /**
+     * @return the number of failed generations
+     */
+    long getFailureCount();
+
+    /**
+     * @return the number of failed generations, indexed by the type of their root cause
+     */
+    Map<String, Long> getFailuresByCause();
+
+    /**
+     * @return the number of attachment bytes read by the generations
+     */
+    long getBytesRead();
+
+    /**
+     * @return the mean duration of the generations, in milliseconds, failures included
+     */
+    double getMeanLatency();
+
+    /**
+     * @return the maximum duration of a generation, in milliseconds
+     */
+    long getMaxLatency();
+
+    /**
+     * @return the number of generations per duration bucket, indexed by the bucket upper bound
+     */
+    Map<String, Long> getLatencyHistogram();
+
+    /**
+     * @return the number of generations waiting for a worker
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of generations rejected because the queue was full
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the mean time spent by the generations in the queue, in milliseconds
+     */
+    double getMeanQueueWaitTime();
+
+    /**
+     * @return the maximum time spent by a generation in the queue, in milliseconds
+     */
+    long getMaxQueueWaitTime();
+}
@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGenerationScheduler;
+
+/**
+ * Collects the metrics of the thumbnail generation pipeline and exposes them through JMX, under the
+ * {@code com.xwiki.macros} domain: one {@code type=ViewFileThumbnails} bean for the thumbnail store and the office
+ * server, and one bean per thumbnail generator type.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@Component(roles = ThumbnailMetrics.class)
+@Singleton
+public class ThumbnailMetrics implements ThumbnailMetricsMXBean, Initializable, Disposable
+{
+    private static final String OBJECT_NAME = "com.xwiki.macros:type=ViewFileThumbnails";
+
+    private final Map<String, ThumbnailGeneratorMetrics> generators = new ConcurrentHashMap<>();
+
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private final LatencyTimer officeConversionTime = new LatencyTimer();
+
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<ThumbnailGenerationScheduler> schedulerProvider;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        for (String hint : ThumbnailGenerationScheduler.HINTS) {
+            ThumbnailGeneratorMetrics metrics =
+                new ThumbnailGeneratorMetrics(hint, () -> this.schedulerProvider.get().getQueueDepth(hint));
+            this.generators.put(hint, metrics);
+            register(metrics, OBJECT_NAME + ",generator=" + ObjectName.quote(hint));
+        }
+        register(this, OBJECT_NAME + ",name=store");
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the MBean [{}].", name, e);
+            }
+        }
+        this.registeredNames.clear();
+    }
+
+    /**
+     * @param hint the hint of a thumbnail generator
+     * @return the metrics of the given thumbnail generator, or {@code null} if there is no such generator
+     */
+    public ThumbnailGeneratorMetricsMXBean getGeneratorMetrics(String hint)
+    {
+        return this.generators.get(hint);
+    }
+
+    /**
+     * Record a successful thumbnail generation.
+     *
+     * @param hint the hint of the thumbnail generator
+     * @param millis the duration of the generation, in milliseconds
+     * @param bytes the size of the attachment
+     */
+    public void recordGeneration(String hint, long millis, long bytes)
+    {
+        ThumbnailGeneratorMetrics metrics = this.generators.get(hint);
+        if (metrics != null) {
+            metrics.recordGeneration(millis, bytes);
+        }
+    }
+
+    /**
+     * Record a failed thumbnail generation.
+     *
+     * @param hint the hint of the thumbnail generator
+     * @param millis the duration of the generation, in milliseconds
+     * @param bytes the size of the attachment
+     * @param error the cause of the failure
+     */
+    public void recordFailure(String hint, long millis, long bytes, Throwable error)
+    {
+        ThumbnailGeneratorMetrics metrics = this.generators.get(hint);
+        if (metrics != null) {
+            Throwable rootCause = ExceptionUtils.getRootCause(error);
+            metrics.recordFailure(millis, bytes, (rootCause != null ? rootCause : error).getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Record the time spent by a generation waiting for a worker.
+     *
+     * @param hint the hint of the thumbnail generator
+     * @param millis the time spent in the queue, in milliseconds
+     */
+    public void recordQueueWait(String hint, long millis)
+    {
+        ThumbnailGeneratorMetrics metrics = this.generators.get(hint);
+        if (metrics != null) {
+            metrics.recordQueueWait(millis);
+        }
+    }
+
+    /**
+     * Record a generation rejected because the queue of its generator was full.
+     *
+     * @param hint the hint of the thumbnail generator
+     */
+    public void recordRejection(String hint)
+    {
+        ThumbnailGeneratorMetrics metrics = this.generators.get(hint);
+        if (metrics != null) {
+            metrics.recordRejection();
+        }
+    }
+
+    /**
+     * Record a lookup of the thumbnail store.
+     *
+     * @param hit {@code true} if the thumbnail was found, {@code false} otherwise
+     */
+    public void recordCacheLookup(boolean hit)
+    {
+        if (hit) {
+            this.cacheHits.increment();
+        } else {
+            this.cacheMisses.increment();
+        }
+    }
+
+    /**
+     * Record a conversion done by the office server.
+     *
+     * @param millis the duration of the conversion, in milliseconds
+     */
+    public void recordOfficeConversion(long millis)
+    {
+        this.officeConversionTime.record(millis);
+    }
+
+    @Override
+    public long getCacheHitCount()
+    {
+        return this.cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMissCount()
+    {
+        return this.cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio()
+    {
+        long hits = this.cacheHits.sum();
+        long total = hits + this.cacheMisses.sum();
+        return total > 0 ? (double) hits / total : 0D;
+    }
+
+    @Override
+    public long getOfficeConversionCount()
+    {
+        return this.officeConversionTime.getCount();
+    }
+
+    @Override
+    public double getMeanOfficeConversionTime()
+    {
+        return this.officeConversionTime.getMean();
+    }
+
+    @Override
+    public long getMaxOfficeConversionTime()
+    {
+        return this.officeConversionTime.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getOfficeConversionHistogram()
+    {
+        return this.officeConversionTime.getHistogram();
+    }
+
+    private void register(Object bean, String name)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(name);
+            // Replace the bean left by a previous instance, e.g. when the extension is reinstalled.
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+            this.registeredNames.add(objectName);
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the MBean [{}]. Root cause is: [{}]", name,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
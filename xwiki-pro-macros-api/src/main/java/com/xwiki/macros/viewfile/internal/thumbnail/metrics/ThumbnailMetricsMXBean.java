@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.util.Map;
+
+/**
+ * Metrics of the thumbnail store and of the office server conversions, exposed through JMX.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public interface ThumbnailMetricsMXBean
+{
+    /**
+     * @return the number of displayed thumbnails found in the thumbnail store
+     */
+    long getCacheHitCount();
+
+    /**
+     * @return the number of displayed thumbnails missing from the thumbnail store
+     */
+    long getCacheMissCount();
+
+    /**
+     * @return the ratio of displayed thumbnails found in the thumbnail store, between 0 and 1
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return the number of conversions done by the office server
+     */
+    long getOfficeConversionCount();
+
+    /**
+     * @return the mean duration of an office server conversion, in milliseconds
+     */
+    double getMeanOfficeConversionTime();
+
+    /**
+     * @return the maximum duration of an office server conversion, in milliseconds
+     */
+    long getMaxOfficeConversionTime();
+
+    /**
+     * @return the number of office server conversions per duration bucket, indexed by the bucket upper bound
+     */
+    Map<String, Long> getOfficeConversionHistogram();
+}
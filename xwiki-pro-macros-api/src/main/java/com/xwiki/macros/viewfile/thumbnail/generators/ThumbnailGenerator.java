@@ -21,6 +21,7 @@ package com.xwiki.macros.viewfile.thumbnail.generators;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.stability.Unstable;
 
 /**
  * Handles the thumbnail generation for a specific file type.
@@ -44,4 +45,20 @@ public interface ThumbnailGenerator
      * @throws Exception if an error occurs during generation
      */
     String generateThumbnail(AttachmentReference attachmentReference) throws Exception;
+
+    /**
+     * Generate the thumbnail of the given version of an {@link AttachmentReference}. The version is the one resolved
+     * by the caller, so that the thumbnail is stored under the same version as the one it looked for.
+     *
+     * @param attachmentReference the reference of the file for which a thumbnail is requested
+     * @param versionKey the key identifying the attachment version
+     * @return the Url to the generated temporary attachment thumbnail
+     * @throws Exception if an error occurs during generation
+     * @since 1.31.3
+     */
+    @Unstable
+    default String generateThumbnail(AttachmentReference attachmentReference, String versionKey) throws Exception
+    {
+        return generateThumbnail(attachmentReference);
+    }
 }
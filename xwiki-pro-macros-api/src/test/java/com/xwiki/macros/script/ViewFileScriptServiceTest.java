@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.script;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.AttachmentReferenceResolver;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.macro.async.ViewFileThumbnailBatchRenderer;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailGeneratorMetricsMXBean;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileScriptService}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileScriptServiceTest
+{
+    private static final String ATTACHMENT = "wiki:Space.Page@file.docx";
+
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final AttachmentReference ATTACHMENT_REFERENCE =
+        new AttachmentReference("file.docx", DOCUMENT_REFERENCE);
+
+    @InjectMockComponents
+    private ViewFileScriptService scriptService;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
+    @MockComponent
+    @Named("current")
+    private AttachmentReferenceResolver<String> attachmentReferenceResolver;
+
+    @MockComponent
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @MockComponent
+    private ViewFileThumbnailBatchRenderer thumbnailBatchRenderer;
+
+    @MockComponent
+    private ThumbnailMetrics thumbnailMetrics;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(attachmentReferenceResolver.resolve(ATTACHMENT, EntityType.ATTACHMENT)).thenReturn(ATTACHMENT_REFERENCE);
+    }
+
+    @Test
+    void isAttachmentOversize() throws Exception
+    {
+        when(authorization.hasAccess(Right.VIEW, ATTACHMENT_REFERENCE)).thenReturn(true);
+
+        assertFalse(scriptService.isAttachmentOversize(ATTACHMENT));
+
+        when(attachmentSizeValidator.isAttachmentOversize(ATTACHMENT_REFERENCE)).thenReturn(true);
+
+        assertTrue(scriptService.isAttachmentOversize(ATTACHMENT));
+    }
+
+    @Test
+    void isAttachmentOversizeWithoutViewRight() throws Exception
+    {
+        assertTrue(scriptService.isAttachmentOversize(ATTACHMENT));
+        // The size of an attachment the current user can't view is not disclosed.
+        verify(attachmentSizeValidator, never()).isAttachmentOversize(any());
+    }
+
+    @Test
+    void getThumbnailsCapsTheBatchSize()
+    {
+        when(attachmentReferenceResolver.resolve(anyString(), eq(EntityType.ATTACHMENT))).thenAnswer(
+            invocation -> new AttachmentReference(invocation.<String>getArgument(0), DOCUMENT_REFERENCE));
+        when(authorization.hasAccess(eq(Right.VIEW), any())).thenReturn(true);
+        List<String> attachments = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            attachments.add("file" + i + ".pdf");
+        }
+
+        scriptService.getThumbnails(attachments, false);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<AttachmentReference>> referencesCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(thumbnailBatchRenderer).render(referencesCaptor.capture(), anyBoolean());
+        assertEquals(100, referencesCaptor.getValue().size());
+    }
+
+    @Test
+    void getThumbnailGeneratorMetrics()
+    {
+        XWikiContext wikiContext = mock(XWikiContext.class);
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getMainXWiki()).thenReturn("xwiki");
+        ThumbnailGeneratorMetricsMXBean generatorMetrics = mock(ThumbnailGeneratorMetricsMXBean.class);
+        when(generatorMetrics.getHint()).thenReturn("pdf");
+        when(generatorMetrics.getGenerationCount()).thenReturn(3L);
+        when(generatorMetrics.getFailuresByCause()).thenReturn(Map.of("IOException", 1L));
+        when(thumbnailMetrics.getGeneratorMetrics("pdf")).thenReturn(generatorMetrics);
+
+        assertNull(scriptService.getThumbnailGeneratorMetrics("pdf"));
+
+        when(authorization.hasAccess(Right.ADMIN, new WikiReference("xwiki"))).thenReturn(true);
+        Map<String, Object> metrics = scriptService.getThumbnailGeneratorMetrics("pdf");
+
+        assertEquals("pdf", metrics.get("hint"));
+        assertEquals(3L, metrics.get("generationCount"));
+        assertEquals(Map.of("IOException", 1L), metrics.get("failuresByCause"));
+        assertNull(scriptService.getThumbnailGeneratorMetrics("unknown"));
+    }
+}
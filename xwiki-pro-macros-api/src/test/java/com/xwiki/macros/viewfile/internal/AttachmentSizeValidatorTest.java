@@ -21,7 +21,11 @@ package com.xwiki.macros.viewfile.internal;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -38,6 +42,7 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
@@ -47,11 +52,18 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -70,6 +82,12 @@ class AttachmentSizeValidatorTest
     @MockComponent
     private Provider<XWikiContext> wikiContextProvider;
 
+    @MockComponent
+    private TemporaryFileManager temporaryFileManager;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
     @Mock
     private XWikiContext wikiContext;
 
@@ -82,9 +100,20 @@ class AttachmentSizeValidatorTest
     private static final DocumentReference DOCUMENT_REFERENCE =
         new DocumentReference("testWiki", "testSpace", "testPage");
 
+    @XWikiTempDir
+    private File tmpDir;
+
     @BeforeEach
-    void beforeEach() throws XWikiException
+    void beforeEach() throws XWikiException, IOException
     {
+        when(temporaryFileManager.getVersionFile(any(AttachmentReference.class), anyString(), anyString()))
+            .thenAnswer(invocation -> new File(tmpDir,
+                invocation.getArgument(1) + invocation.<String>getArgument(2)));
+        when(temporaryFileManager.spool(any(InputStream.class), anyString())).thenAnswer(invocation -> {
+            File file = File.createTempFile("spool", invocation.getArgument(1), tmpDir);
+            Files.write(file.toPath(), invocation.<InputStream>getArgument(0).readAllBytes());
+            return file;
+        });
         when(wikiContextProvider.get()).thenReturn(wikiContext);
         when(wikiContext.getWiki()).thenReturn(wiki);
         when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext)).thenReturn(mock(XWikiDocument.class));
@@ -119,6 +148,24 @@ class AttachmentSizeValidatorTest
         when(attachment.getContentInputStream(wikiContext)).thenReturn(zipInput);
 
         assertFalse(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+        // The archive is smaller than the spool threshold, so it is read in a single pass.
+        verify(temporaryFileManager, never()).spool(any(InputStream.class), anyString());
+    }
+
+    @Test
+    void isAttachmentOversizeSpooled() throws IOException, XWikiException
+    {
+        String attachmentName = "test.docx";
+        AttachmentReference attachmentReference = new AttachmentReference(attachmentName, DOCUMENT_REFERENCE);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext).getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getContentInputStream(wikiContext))
+            .thenReturn(getAttachmentInputStream(attachmentName, "some content"));
+        when(attachment.getLongSize()).thenReturn(1000L);
+        when(configuration.getThumbnailSpoolThreshold()).thenReturn(100L);
+
+        assertFalse(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+        verify(temporaryFileManager).spool(any(InputStream.class), eq(".zip"));
     }
 
     @Test
@@ -179,6 +226,55 @@ class AttachmentSizeValidatorTest
             + "string: \"999999999999999999999999\"]", LOG_CAPTURE.getMessage(LOG_CAPTURE.size() - 1));
     }
 
+    @Test
+    void isAttachmentOversizeCachesVerdict() throws IOException, XWikiException
+    {
+        String attachmentName = "test.docx";
+        AttachmentReference attachmentReference = new AttachmentReference(attachmentName, DOCUMENT_REFERENCE);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext).getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getVersion()).thenReturn("1.1");
+        when(attachment.getContentInputStream(wikiContext))
+            .thenReturn(getAttachmentInputStream(attachmentName, "some content"));
+
+        assertFalse(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+        assertFalse(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+
+        verify(attachment, times(1)).getContentInputStream(wikiContext);
+        assertEquals("false",
+            Files.readString(new File(tmpDir, "1.1-0.oversize").toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void isAttachmentOversizeStoredVerdict() throws IOException, XWikiException
+    {
+        String attachmentName = "test.docx";
+        AttachmentReference attachmentReference = new AttachmentReference(attachmentName, DOCUMENT_REFERENCE);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext).getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getVersion()).thenReturn("1.2");
+        Files.writeString(new File(tmpDir, "1.2-0.oversize").toPath(), "true", StandardCharsets.UTF_8);
+
+        assertTrue(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+
+        verify(attachment, never()).getContentInputStream(wikiContext);
+    }
+
+    @Test
+    void isAttachmentOversizeNotAnArchive() throws IOException, XWikiException
+    {
+        String attachmentName = "test.pdf";
+        AttachmentReference attachmentReference = new AttachmentReference(attachmentName, DOCUMENT_REFERENCE);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext).getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getContentInputStream(wikiContext))
+            .thenReturn(new ByteArrayInputStream("%PDF-1.4".getBytes()));
+
+        assertFalse(attachmentSizeValidator.isAttachmentOversize(attachmentReference));
+
+        verify(temporaryFileManager, never()).spool(any(InputStream.class), anyString());
+    }
+
     private static ByteArrayInputStream getAttachmentInputStream(String attachmentName, String content)
         throws IOException
     {
@@ -0,0 +1,275 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.csv.CsvPage;
+import com.xwiki.macros.viewfile.csv.CsvQuery;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CsvPageReader}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class CsvPageReaderTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE =
+        new DocumentReference("testWiki", "testSpace", "testPage");
+
+    private static final AttachmentReference ATTACHMENT_REFERENCE =
+        new AttachmentReference("test.csv", DOCUMENT_REFERENCE);
+
+    @InjectMockComponents
+    private CsvPageReader csvPageReader;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @MockComponent
+    private AttachmentVersionProvider versionProvider;
+
+    @MockComponent
+    private TemporaryFileManager temporaryFileManager;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @Mock
+    private XWikiContext wikiContext;
+
+    @Mock
+    private XWiki wiki;
+
+    @Mock
+    private XWikiDocument document;
+
+    @Mock
+    private XWikiAttachment attachment;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    private String content;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        StringBuilder builder = new StringBuilder("name,value\n");
+        for (int i = 0; i < 250; i++) {
+            builder.append("name").append(i).append(',').append(i).append('\n');
+        }
+        this.content = builder.toString();
+
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wiki.getDocument(DOCUMENT_REFERENCE, wikiContext)).thenReturn(document);
+        when(document.getAttachment("test.csv")).thenReturn(attachment);
+        when(attachment.getContentInputStream(wikiContext))
+            .thenAnswer(invocation -> new ByteArrayInputStream(this.content.getBytes(StandardCharsets.UTF_8)));
+        when(versionProvider.getVersionKey(ATTACHMENT_REFERENCE)).thenReturn("1.1-0");
+        when(temporaryFileManager.getCsvFile(any(AttachmentReference.class), anyString(), anyString()))
+            .thenAnswer(invocation -> new File(new File(tmpDir, "test.csv"),
+                invocation.getArgument(1) + invocation.<String>getArgument(2)));
+        when(configuration.getCsvMaxSortedRows()).thenReturn(10000);
+    }
+
+    @Test
+    void getPage() throws Exception
+    {
+        CsvPage page = csvPageReader.getPage(ATTACHMENT_REFERENCE, query(150, 3));
+
+        assertEquals(List.of("name", "value"), page.getHeaders());
+        assertEquals(List.of(List.of("name150", "150"), List.of("name151", "151"), List.of("name152", "152")),
+            page.getRows());
+        assertEquals(150, page.getOffset());
+        assertEquals(250, page.getTotal());
+    }
+
+    @Test
+    void getPageParsesTheAttachmentOnce() throws Exception
+    {
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query(0, 10));
+        CsvPage page = csvPageReader.getPage(ATTACHMENT_REFERENCE, query(249, 10));
+
+        assertEquals(List.of(List.of("name249", "249")), page.getRows());
+        verify(attachment, times(1)).getContentInputStream(wikiContext);
+        // The copies of the previous versions are removed once the copy of the current version is stored.
+        verify(temporaryFileManager, times(1)).deleteOtherCsvVersions(ATTACHMENT_REFERENCE, "1.1-0");
+    }
+
+    @Test
+    void getPageStoresOneCopyPerFormat() throws Exception
+    {
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query(0, 10));
+        // The default format is used when no format is given.
+        CsvQuery query = query(0, 10);
+        query.setFormat("Default");
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query);
+        query.setDelimiter(";");
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query);
+
+        String[] copies = new File(tmpDir, "test.csv").list();
+        assertEquals(2, copies.length);
+        for (String copy : copies) {
+            assertTrue(copy.matches("1\\.1-0\\.[0-9a-f]{64}\\.csv"), copy);
+        }
+        verify(attachment, times(2)).getContentInputStream(wikiContext);
+    }
+
+    @Test
+    void getPageWithUnknownFormat() throws Exception
+    {
+        CsvQuery query = query(0, 10);
+        query.setFormat("Unknown");
+
+        assertThrows(IllegalArgumentException.class, () -> csvPageReader.getPage(ATTACHMENT_REFERENCE, query));
+        verify(temporaryFileManager, never()).getCsvFile(any(), anyString(), anyString());
+    }
+
+    @Test
+    void getPageWithQuotedValues() throws Exception
+    {
+        this.content = "\"first, \"\"quoted\"\"\nvalue\",1\n\"\",2\n";
+        CsvQuery query = query(0, 10);
+        query.setFirstLineIsHeader(false);
+
+        CsvPage page = csvPageReader.getPage(ATTACHMENT_REFERENCE, query);
+
+        assertEquals(List.of(), page.getHeaders());
+        assertEquals(List.of(List.of("first, \"quoted\"\nvalue", "1"), List.of("", "2")), page.getRows());
+        assertEquals(2, page.getTotal());
+    }
+
+    @Test
+    void getFilteredPage() throws Exception
+    {
+        CsvQuery query = query(1, 2);
+        query.setFilter("NAME24");
+
+        CsvPage page = csvPageReader.getPage(ATTACHMENT_REFERENCE, query);
+
+        assertEquals(List.of(List.of("name240", "240"), List.of("name241", "241")), page.getRows());
+        assertEquals(11, page.getTotal());
+    }
+
+    @Test
+    void getSortedPage() throws Exception
+    {
+        CsvQuery query = query(0, 2);
+        query.setSortColumn(1);
+        query.setDescending(true);
+        assertEquals(List.of(List.of("name249", "249"), List.of("name248", "248")),
+            csvPageReader.getPage(ATTACHMENT_REFERENCE, query).getRows());
+
+        // Text values are sorted alphabetically.
+        query.setSortColumn(0);
+        query.setDescending(false);
+        query.setOffset(1);
+        assertEquals(List.of(List.of("name1", "1"), List.of("name10", "10")),
+            csvPageReader.getPage(ATTACHMENT_REFERENCE, query).getRows());
+    }
+
+    @Test
+    void getSortedPageWithMixedValues() throws Exception
+    {
+        this.content = "name,value\na,10\nb,9a\nc,9\nd,N/A\ne,\nf,0x10\ng,1d\nh, -2.5\n";
+        CsvQuery query = query(0, 10);
+        query.setSortColumn(1);
+
+        // The numbers come first, sorted by value, then the other values sorted as text.
+        List<String> names = new ArrayList<>();
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query).getRows().forEach(row -> names.add(row.get(0)));
+        assertEquals(List.of("h", "c", "a", "e", "f", "g", "b", "d"), names);
+
+        query.setDescending(true);
+        names.clear();
+        csvPageReader.getPage(ATTACHMENT_REFERENCE, query).getRows().forEach(row -> names.add(row.get(0)));
+        assertEquals(List.of("d", "b", "g", "f", "e", "a", "c", "h"), names);
+    }
+
+    @Test
+    void getSortedPagePastMaxSortedRows() throws Exception
+    {
+        when(configuration.getCsvMaxSortedRows()).thenReturn(5);
+        CsvQuery query = query(3, 5);
+        query.setSortColumn(1);
+
+        CsvPage page = csvPageReader.getPage(ATTACHMENT_REFERENCE, query);
+
+        assertEquals(List.of(List.of("name3", "3"), List.of("name4", "4")), page.getRows());
+        assertEquals(250, page.getTotal());
+
+        // The rows past the sorted rows can't be browsed.
+        query.setOffset(5);
+        assertTrue(csvPageReader.getPage(ATTACHMENT_REFERENCE, query).getRows().isEmpty());
+    }
+
+    @Test
+    void getPageMissingAttachment() throws Exception
+    {
+        when(versionProvider.getVersionKey(ATTACHMENT_REFERENCE)).thenReturn(null);
+
+        assertThrows(IOException.class, () -> csvPageReader.getPage(ATTACHMENT_REFERENCE, query(0, 10)));
+    }
+
+    private static CsvQuery query(int offset, int limit)
+    {
+        CsvQuery query = new CsvQuery();
+        query.setOffset(offset);
+        query.setLimit(limit);
+        return query;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileCapabilityListener}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileCapabilityListenerTest
+{
+    @InjectMockComponents
+    private ViewFileCapabilityListener listener;
+
+    @MockComponent
+    private ViewFileCapabilityRegistry capabilityRegistry;
+
+    @Test
+    void onApplicationPageCreated()
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "XWiki", "PDFViewerMacro");
+
+        listener.onEvent(new DocumentCreatedEvent(), mockDocument(documentReference), null);
+
+        verify(capabilityRegistry).invalidate(documentReference);
+    }
+
+    @Test
+    void onApplicationPageDeleted()
+    {
+        DocumentReference documentReference =
+            new DocumentReference(ViewFileCapabilityRegistry.COLLABORA_REFERENCE, new WikiReference("subwiki"));
+
+        listener.onEvent(new DocumentDeletedEvent(), mockDocument(documentReference), null);
+
+        verify(capabilityRegistry).invalidate(documentReference);
+    }
+
+    @Test
+    void onOtherPageCreated()
+    {
+        listener.onEvent(new DocumentCreatedEvent(),
+            mockDocument(new DocumentReference("wiki", "Space", "PDFViewerMacro")), null);
+        listener.onEvent(new DocumentCreatedEvent(), null, null);
+
+        verify(capabilityRegistry, never()).invalidate(any());
+    }
+
+    private XWikiDocument mockDocument(DocumentReference documentReference)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(documentReference);
+        return document;
+    }
+}
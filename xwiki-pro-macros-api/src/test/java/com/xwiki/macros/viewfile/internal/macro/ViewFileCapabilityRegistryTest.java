@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileCapabilityRegistry}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileCapabilityRegistryTest
+{
+    private static final DocumentReference PDF_VIEWER_REFERENCE =
+        new DocumentReference("wiki", "XWiki", "PDFViewerMacro");
+
+    private static final DocumentReference COLLABORA_REFERENCE =
+        new DocumentReference("wiki", List.of("Collabora", "Code"), "Configuration");
+
+    @InjectMockComponents
+    private ViewFileCapabilityRegistry capabilityRegistry;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @Mock
+    private XWikiContext wikiContext;
+
+    @Mock
+    private XWiki wiki;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(contextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wikiContext.getWikiReference()).thenReturn(new WikiReference("wiki"));
+    }
+
+    @Test
+    void hasPdfViewerCached() throws Exception
+    {
+        when(wiki.exists(PDF_VIEWER_REFERENCE, wikiContext)).thenReturn(true);
+
+        assertTrue(capabilityRegistry.hasPdfViewer());
+        assertTrue(capabilityRegistry.hasPdfViewer());
+        verify(wiki).exists(PDF_VIEWER_REFERENCE, wikiContext);
+    }
+
+    @Test
+    void hasCollaboraInvalidated() throws Exception
+    {
+        assertFalse(capabilityRegistry.hasCollabora());
+
+        when(wiki.exists(COLLABORA_REFERENCE, wikiContext)).thenReturn(true);
+        assertFalse(capabilityRegistry.hasCollabora());
+
+        capabilityRegistry.invalidate(COLLABORA_REFERENCE);
+        assertTrue(capabilityRegistry.hasCollabora());
+        verify(wiki, times(2)).exists(COLLABORA_REFERENCE, wikiContext);
+    }
+}
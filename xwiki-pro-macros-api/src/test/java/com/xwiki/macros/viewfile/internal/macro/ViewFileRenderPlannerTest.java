@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileRenderPlanner}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileRenderPlannerTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE =
+        new DocumentReference("wiki", "Space", "Page");
+
+    @InjectMockComponents
+    private ViewFileRenderPlanner renderPlanner;
+
+    @MockComponent
+    private ViewFileCapabilityRegistry capabilityRegistry;
+
+    @Test
+    void getPlanFullView() throws Exception
+    {
+        AttachmentReference reference = new AttachmentReference("file.xlsx", DOCUMENT_REFERENCE);
+        ViewFileMacroParameters parameters = new ViewFileMacroParameters();
+        parameters.setDisplay(ViewFileDisplay.full);
+        parameters.setWidth("100%");
+        parameters.setHeight("500px");
+        parameters.setCSVFormat("");
+        parameters.setCSVDelimiter("");
+
+        ViewFileRenderPlan plan = renderPlanner.getPlan(parameters, reference, false, false);
+        assertTrue(plan.isFullView());
+        assertEquals("xlsx", plan.getFullViewParameters().get("fileExtension"));
+        assertEquals("100%", plan.getFullViewParameters().get("width"));
+
+        ViewFileRenderPlan editPlan = renderPlanner.getPlan(parameters, reference, false, true);
+        assertFalse(editPlan.isFullView());
+        assertTrue(editPlan.hasPreview());
+        assertEquals(" width:100%; height:500px;", editPlan.getStyle());
+
+        assertFalse(renderPlanner.getPlan(parameters, reference, true, false).isFullView());
+    }
+
+    @Test
+    void getPlanPdfPreview() throws Exception
+    {
+        AttachmentReference reference = new AttachmentReference("file.pdf", DOCUMENT_REFERENCE);
+        ViewFileMacroParameters parameters = new ViewFileMacroParameters();
+
+        assertFalse(renderPlanner.getPlan(parameters, reference, false, false).hasPreview());
+
+        when(capabilityRegistry.hasPdfViewer()).thenReturn(true);
+        assertTrue(renderPlanner.getPlan(parameters, reference, false, false).hasPreview());
+    }
+
+    @Test
+    void getPlanButton() throws Exception
+    {
+        AttachmentReference reference = new AttachmentReference("file.docx", DOCUMENT_REFERENCE);
+        ViewFileMacroParameters parameters = new ViewFileMacroParameters();
+        parameters.setDisplay(ViewFileDisplay.button);
+
+        ViewFileRenderPlan plan = renderPlanner.getPlan(parameters, reference, true, false);
+        assertTrue(plan.isButton());
+        assertEquals("", plan.getStyle());
+    }
+
+    @Test
+    void getOversizePlan() throws Exception
+    {
+        AttachmentReference reference = new AttachmentReference("file.docx", DOCUMENT_REFERENCE);
+        ViewFileMacroParameters parameters = new ViewFileMacroParameters();
+        parameters.setDisplay(ViewFileDisplay.full);
+        when(capabilityRegistry.hasPdfViewer()).thenReturn(true);
+        when(capabilityRegistry.hasCollabora()).thenReturn(true);
+
+        ViewFileRenderPlan plan = renderPlanner.getOversizePlan(parameters, reference);
+        assertTrue(plan.isOversize());
+        assertFalse(plan.hasPreview());
+        assertFalse(plan.isFullView());
+        assertTrue(plan.hasCollabora());
+    }
+}
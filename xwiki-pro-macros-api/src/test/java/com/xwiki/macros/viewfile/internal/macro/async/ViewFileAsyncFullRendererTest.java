@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro.async;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.async.AsyncContext;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.transformation.MacroTransformationContext;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+import com.xwiki.macros.viewfile.internal.macro.ViewFileMacroPrepareBlocks;
+import com.xwiki.macros.viewfile.macro.ViewFileDisplay;
+import com.xwiki.macros.viewfile.macro.ViewFileMacroParameters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileAsyncFullRenderer}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileAsyncFullRendererTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final AttachmentReference ATTACHMENT_REFERENCE =
+        new AttachmentReference("file.docx", DOCUMENT_REFERENCE);
+
+    private static final Map<String, String> CSV_PARAMETERS = Map.of("fileExtension", "csv", "width", "100%",
+        "height", "500", "csvFormat", "Default", "csvDelimiter", ",", "csvFirstLineIsHeader", "true");
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private ViewFileAsyncFullRenderer renderer;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    @MockComponent
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @MockComponent
+    private AttachmentVersionProvider attachmentVersionProvider;
+
+    @MockComponent
+    private ViewFileMacroPrepareBlocks viewFileMacroPrepareBlocks;
+
+    @MockComponent
+    private AsyncContext asyncContext;
+
+    @Mock
+    private XWikiContext wikiContext;
+
+    @Mock
+    private XWikiRequest wikiRequest;
+
+    @Mock
+    private MacroTransformationContext macroContext;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getRequest()).thenReturn(wikiRequest);
+        when(macroContext.getTransformationContext()).thenReturn(new TransformationContext());
+        when(referenceSerializer.serialize(ATTACHMENT_REFERENCE)).thenReturn("wiki:Space.Page@file.docx");
+        when(attachmentVersionProvider.getVersionKey(ATTACHMENT_REFERENCE)).thenReturn("1.1-0");
+    }
+
+    @Test
+    void executeWithOversizeOfficeFile() throws Exception
+    {
+        when(attachmentSizeValidator.isAttachmentOversize(ATTACHMENT_REFERENCE)).thenReturn(true);
+        when(viewFileMacroPrepareBlocks.prepareOversizeDisplay(any(ViewFileMacroParameters.class),
+            eq(ATTACHMENT_REFERENCE))).thenReturn(List.of(new WordBlock("card")));
+
+        renderer.initialize(macroContext, ATTACHMENT_REFERENCE,
+            Map.of("fileExtension", "docx", "width", "50%", "height", "300"));
+        renderer.execute(true, false);
+
+        // The office files that are too big to be converted are displayed as a card, keeping the requested size.
+        ArgumentCaptor<ViewFileMacroParameters> parametersCaptor =
+            ArgumentCaptor.forClass(ViewFileMacroParameters.class);
+        verify(viewFileMacroPrepareBlocks).prepareOversizeDisplay(parametersCaptor.capture(),
+            eq(ATTACHMENT_REFERENCE));
+        assertEquals(ViewFileDisplay.full, parametersCaptor.getValue().getDisplay());
+        assertEquals("50%", parametersCaptor.getValue().getWidth());
+        assertEquals("300", parametersCaptor.getValue().getHeight());
+    }
+
+    @Test
+    void executeUsesDocument() throws Exception
+    {
+        when(attachmentSizeValidator.isAttachmentOversize(ATTACHMENT_REFERENCE)).thenReturn(true);
+        when(viewFileMacroPrepareBlocks.prepareOversizeDisplay(any(ViewFileMacroParameters.class),
+            eq(ATTACHMENT_REFERENCE))).thenReturn(List.of(new WordBlock("card")));
+
+        renderer.initialize(macroContext, ATTACHMENT_REFERENCE, Map.of("fileExtension", "docx"));
+        renderer.execute(true, false);
+
+        // The cached result is invalidated when the document holding the attachment is modified.
+        verify(asyncContext).useEntity(DOCUMENT_REFERENCE);
+    }
+
+    @Test
+    void getIdPerVersionAndParameters() throws Exception
+    {
+        List<String> id = getId(CSV_PARAMETERS);
+        assertEquals(id, getId(CSV_PARAMETERS));
+        assertTrue(renderer.isCacheAllowed());
+
+        assertNotEquals(id, getId(withParameter("width", "50%")));
+        assertNotEquals(id, getId(withParameter("height", "300")));
+        assertNotEquals(id, getId(withParameter("csvFormat", "Excel")));
+        assertNotEquals(id, getId(withParameter("csvDelimiter", ";")));
+        assertNotEquals(id, getId(withParameter("csvFirstLineIsHeader", "false")));
+
+        when(attachmentVersionProvider.getVersionKey(ATTACHMENT_REFERENCE)).thenReturn("1.2-0");
+        assertNotEquals(id, getId(CSV_PARAMETERS));
+    }
+
+    @Test
+    void isCacheAllowedWithoutVersion() throws Exception
+    {
+        when(attachmentVersionProvider.getVersionKey(ATTACHMENT_REFERENCE)).thenReturn(null);
+
+        renderer.initialize(macroContext, ATTACHMENT_REFERENCE, CSV_PARAMETERS);
+
+        assertFalse(renderer.isCacheAllowed());
+    }
+
+    @Test
+    void isCacheAllowedWhenVersionFails() throws Exception
+    {
+        when(attachmentVersionProvider.getVersionKey(ATTACHMENT_REFERENCE))
+            .thenThrow(new XWikiException(0, 0, "test throw"));
+
+        renderer.initialize(macroContext, ATTACHMENT_REFERENCE, CSV_PARAMETERS);
+
+        assertFalse(renderer.isCacheAllowed());
+        assertTrue(logCapture.getMessage(0).startsWith(
+            String.format("Failed to get the version of [%s], its full view won't be cached.", ATTACHMENT_REFERENCE)));
+    }
+
+    private List<String> getId(Map<String, String> parameters)
+    {
+        renderer.initialize(macroContext, ATTACHMENT_REFERENCE, parameters);
+        return renderer.getId();
+    }
+
+    private Map<String, String> withParameter(String name, String value)
+    {
+        Map<String, String> parameters = new HashMap<>(CSV_PARAMETERS);
+        parameters.put(name, value);
+        return parameters;
+    }
+}
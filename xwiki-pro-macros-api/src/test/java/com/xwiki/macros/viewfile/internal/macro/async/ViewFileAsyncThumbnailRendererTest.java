@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro.async;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.transformation.MacroTransformationContext;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.internal.AttachmentSizeValidator;
+import com.xwiki.macros.viewfile.internal.macro.ViewFileExternalBlockManager;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGeneratorManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileAsyncThumbnailRenderer}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileAsyncThumbnailRendererTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "Space", "Page");
+
+    @InjectMockComponents
+    private ViewFileAsyncThumbnailRenderer renderer;
+
+    @MockComponent
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @MockComponent
+    private AttachmentSizeValidator attachmentSizeValidator;
+
+    @MockComponent
+    private ViewFileExternalBlockManager viewFileExternalBlockManager;
+
+    @Mock
+    private MacroTransformationContext macroContext;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(macroContext.getTransformationContext()).thenReturn(new TransformationContext());
+        when(thumbnailGeneratorManager.isSupported(anyString()))
+            .thenAnswer(invocation -> !invocation.<String>getArgument(0).endsWith(".txt"));
+        when(viewFileExternalBlockManager.getThumbnailBlock(anyString(), anyBoolean()))
+            .thenAnswer(invocation -> new WordBlock("image:" + invocation.getArgument(0)));
+        when(viewFileExternalBlockManager.getMimeTypeBlock(any(AttachmentReference.class), anyBoolean()))
+            .thenAnswer(
+                invocation -> new WordBlock("mime:" + invocation.<AttachmentReference>getArgument(0).getName()));
+    }
+
+    @Test
+    void executeWithThumbnail() throws Exception
+    {
+        AttachmentReference attachmentReference = new AttachmentReference("file.pdf", DOCUMENT_REFERENCE);
+        when(thumbnailGeneratorManager.getThumbnailUrl(attachmentReference)).thenReturn("/thumbnail.jpg");
+
+        assertEquals("image:/thumbnail.jpg", render(attachmentReference));
+    }
+
+    @Test
+    void executeWithOversizeAttachment() throws Exception
+    {
+        AttachmentReference attachmentReference = new AttachmentReference("file.docx", DOCUMENT_REFERENCE);
+        when(attachmentSizeValidator.isAttachmentOversize(attachmentReference)).thenReturn(true);
+
+        assertEquals("mime:file.docx", render(attachmentReference));
+        verify(thumbnailGeneratorManager, never()).getThumbnailUrl(any());
+    }
+
+    @Test
+    void executeWithUnsupportedAttachment() throws Exception
+    {
+        AttachmentReference attachmentReference = new AttachmentReference("file.txt", DOCUMENT_REFERENCE);
+        when(thumbnailGeneratorManager.getThumbnailUrl(attachmentReference)).thenReturn("");
+
+        assertEquals("mime:file.txt", render(attachmentReference));
+        // The size of the files without thumbnail doesn't matter.
+        verify(attachmentSizeValidator, never()).isAttachmentOversize(any());
+    }
+
+    private String render(AttachmentReference attachmentReference) throws Exception
+    {
+        renderer.initialize(macroContext, attachmentReference, Map.of());
+        Block result = renderer.execute(true, false);
+        return ((WordBlock) result.getChildren().get(0)).getWord();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.macro.async;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.macro.ViewFileExternalBlockManager;
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGeneratorManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewFileThumbnailBatchRenderer}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ViewFileThumbnailBatchRendererTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final AttachmentReference GENERATED = new AttachmentReference("generated.pdf", DOCUMENT_REFERENCE);
+
+    private static final AttachmentReference OVERSIZE = new AttachmentReference("oversize.docx", DOCUMENT_REFERENCE);
+
+    private static final AttachmentReference PENDING = new AttachmentReference("pending.pptx", DOCUMENT_REFERENCE);
+
+    private static final AttachmentReference REJECTED = new AttachmentReference("rejected.pdf", DOCUMENT_REFERENCE);
+
+    private static final AttachmentReference UNSUPPORTED = new AttachmentReference("file.txt", DOCUMENT_REFERENCE);
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private ViewFileThumbnailBatchRenderer batchRenderer;
+
+    @MockComponent
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @MockComponent
+    private ViewFileExternalBlockManager viewFileExternalBlockManager;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    @MockComponent
+    @Named("xhtml/1.0")
+    private BlockRenderer xhtmlRenderer;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(thumbnailGeneratorManager.isSupported(anyString()))
+            .thenAnswer(invocation -> !invocation.<String>getArgument(0).endsWith(".txt"));
+        when(thumbnailGeneratorManager.scheduleThumbnail(OVERSIZE)).thenReturn(CompletableFuture.completedFuture(""));
+        when(thumbnailGeneratorManager.scheduleThumbnail(GENERATED))
+            .thenReturn(CompletableFuture.completedFuture("/thumbnail.jpg"));
+        when(thumbnailGeneratorManager.scheduleThumbnail(PENDING)).thenReturn(new CompletableFuture<>());
+        when(thumbnailGeneratorManager.scheduleThumbnail(REJECTED)).thenThrow(new RejectedExecutionException());
+        when(viewFileExternalBlockManager.getThumbnailBlock(anyString(), anyBoolean()))
+            .thenAnswer(invocation -> new WordBlock("image:" + invocation.getArgument(0)));
+        when(viewFileExternalBlockManager.getMimeTypeBlock(any(AttachmentReference.class), anyBoolean()))
+            .thenAnswer(
+                invocation -> new WordBlock("mime:" + invocation.<AttachmentReference>getArgument(0).getName()));
+        doAnswer(invocation -> {
+            invocation.<WikiPrinter>getArgument(1).print(((WordBlock) invocation.<Block>getArgument(0)).getWord());
+            return null;
+        }).when(xhtmlRenderer).render(any(Block.class), any(WikiPrinter.class));
+    }
+
+    @Test
+    void render()
+    {
+        Map<AttachmentReference, String> thumbnails =
+            batchRenderer.render(List.of(GENERATED, OVERSIZE, PENDING, REJECTED, UNSUPPORTED), false);
+
+        assertEquals(Map.of(GENERATED, "image:/thumbnail.jpg", OVERSIZE, "mime:oversize.docx", PENDING,
+            "mime:pending.pptx", REJECTED, "mime:rejected.pdf", UNSUPPORTED, "mime:file.txt"), thumbnails);
+        assertEquals(String.format("Too many pending thumbnail generations, skipping the thumbnail of [%s].", REJECTED),
+            logCapture.getMessage(0));
+    }
+
+    @Test
+    void getPlaceholder() throws Exception
+    {
+        when(referenceSerializer.serialize(PENDING)).thenReturn("wiki:Space.Page@pending.pptx");
+
+        assertEquals("<span class=\"viewfile-thumbnail-pending\" data-ref=\"wiki:Space.Page@pending.pptx\" "
+            + "data-inline=\"true\" data-lazy=\"false\">mime:pending.pptx</span>",
+            batchRenderer.getPlaceholder(PENDING, true));
+        verify(thumbnailGeneratorManager).scheduleThumbnail(PENDING);
+    }
+
+    @Test
+    void getPlaceholderLazy() throws Exception
+    {
+        when(configuration.isThumbnailLazyLoadingEnabled()).thenReturn(true);
+        when(referenceSerializer.serialize(PENDING)).thenReturn("wiki:Space.Page@pending.pptx");
+
+        assertEquals("<span class=\"viewfile-thumbnail-pending\" data-ref=\"wiki:Space.Page@pending.pptx\" "
+            + "data-inline=\"false\" data-lazy=\"true\">mime:pending.pptx</span>",
+            batchRenderer.getPlaceholder(PENDING, false));
+        verify(thumbnailGeneratorManager, never()).scheduleThumbnail(any());
+    }
+}
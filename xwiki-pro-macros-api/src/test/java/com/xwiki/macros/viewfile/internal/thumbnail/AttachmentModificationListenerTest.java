@@ -40,11 +40,16 @@ import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.AttachmentAddedEvent;
+import com.xpn.xwiki.internal.event.AttachmentDeletedEvent;
 import com.xpn.xwiki.internal.event.AttachmentUpdatedEvent;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ComponentTest
@@ -62,6 +67,12 @@ public class AttachmentModificationListenerTest
     @MockComponent
     private TemporaryFileManager temporaryFileManager;
 
+    @MockComponent
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.INFO);
 
@@ -72,6 +83,8 @@ public class AttachmentModificationListenerTest
 
     private File folder1;
 
+    private File csvFolder;
+
     @Mock
     private XWikiDocument document;
 
@@ -90,6 +103,8 @@ public class AttachmentModificationListenerTest
         folder1.mkdir();
         file1 = new File(folder1, "some file");
         file1.createNewFile();
+        csvFolder = new File(tmpDir, "csv");
+        when(temporaryFileManager.getCsvFolder(attachmentReference)).thenReturn(csvFolder);
     }
 
     @Test
@@ -110,10 +125,11 @@ public class AttachmentModificationListenerTest
         Event event = new AttachmentUpdatedEvent("test doc", "testName");
         when(document.getDocumentReference()).thenReturn(testRef);
         when(attachmentResolver.resolve("testName", testRef)).thenReturn(attachmentReference);
-        when(temporaryFileManager.getThumbnailFile(attachmentReference)).thenReturn(file1);
+        when(temporaryFileManager.getThumbnailFolder(attachmentReference)).thenReturn(folder1);
         assertTrue(file1.exists());
         attachmentModificationListener.onEvent(event, document, null);
         assertFalse(file1.exists());
+        assertFalse(folder1.exists());
         assertTrue(logCapture.getMessage(0).contains("Successfully removed thumbnail at location: ["));
     }
 
@@ -123,21 +139,60 @@ public class AttachmentModificationListenerTest
         Event event = new AttachmentUpdatedEvent("test doc", "testName");
         when(document.getDocumentReference()).thenReturn(testRef);
         when(attachmentResolver.resolve("testName", testRef)).thenReturn(attachmentReference);
-        when(temporaryFileManager.getThumbnailFile(attachmentReference)).thenReturn(file1);
+        when(temporaryFileManager.getThumbnailFolder(attachmentReference)).thenReturn(folder1);
         assertTrue(file1.exists());
         attachmentModificationListener.onEvent(event, document, null);
         assertFalse(file1.exists());
+        assertFalse(folder1.exists());
         assertTrue(logCapture.getMessage(0).contains("Successfully removed thumbnail at location: ["));
     }
 
+    @Test
+    void onEventAttachmentDeletedEventRemovesCsvCopies() throws IOException
+    {
+        Event event = new AttachmentDeletedEvent("test doc", "test.csv");
+        File csvCopy = new File(csvFolder, "1.1-1.0000abcd.csv");
+        csvFolder.mkdir();
+        csvCopy.createNewFile();
+        when(document.getDocumentReference()).thenReturn(testRef);
+        when(attachmentResolver.resolve("test.csv", testRef)).thenReturn(attachmentReference);
+        when(temporaryFileManager.getThumbnailFolder(attachmentReference)).thenReturn(new File(tmpDir, "missing"));
+
+        attachmentModificationListener.onEvent(event, document, null);
+
+        assertFalse(csvCopy.exists());
+        assertFalse(csvFolder.exists());
+    }
+
     @Test
     void onEventFail() throws IOException
     {
         Event event = new AttachmentUpdatedEvent("test doc", "testName");
         when(document.getDocumentReference()).thenReturn(testRef);
         when(attachmentResolver.resolve("testName", testRef)).thenReturn(attachmentReference);
-        when(temporaryFileManager.getThumbnailFile(attachmentReference)).thenThrow(new IOException("test error"));
+        when(temporaryFileManager.getThumbnailFolder(attachmentReference)).thenThrow(new IOException("test error"));
         attachmentModificationListener.onEvent(event, document, null);
         assertEquals("Failed to remove thumbnail at attachment modification.", logCapture.getMessage(0));
     }
+
+    @Test
+    void onEventAttachmentAddedEventPregenerate() throws Exception
+    {
+        Event event = new AttachmentAddedEvent("test doc", "test.pdf");
+        when(document.getDocumentReference()).thenReturn(testRef);
+        when(attachmentResolver.resolve("test.pdf", testRef)).thenReturn(attachmentReference);
+        when(configuration.isThumbnailPregenerationEnabled()).thenReturn(true);
+        when(thumbnailGeneratorManager.isSupported("test.pdf")).thenReturn(true);
+        attachmentModificationListener.onEvent(event, document, null);
+        verify(thumbnailGeneratorManager).scheduleThumbnail(attachmentReference);
+    }
+
+    @Test
+    void onEventAttachmentAddedEventPregenerationDisabled() throws Exception
+    {
+        Event event = new AttachmentAddedEvent("test doc", "test.pdf");
+        when(thumbnailGeneratorManager.isSupported("test.pdf")).thenReturn(true);
+        attachmentModificationListener.onEvent(event, document, null);
+        verify(thumbnailGeneratorManager, never()).scheduleThumbnail(attachmentReference);
+    }
 }
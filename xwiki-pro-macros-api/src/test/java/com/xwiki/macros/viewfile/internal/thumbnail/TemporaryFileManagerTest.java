@@ -37,15 +37,21 @@ import org.xwiki.resource.temporary.TemporaryResourceReference;
 import org.xwiki.resource.temporary.TemporaryResourceStore;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.url.ExtendedURL;
 
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -72,6 +78,12 @@ public class TemporaryFileManagerTest
     @MockComponent
     private ResourceReferenceSerializer<ResourceReference, ExtendedURL> resourceReferenceSerializer;
 
+    @MockComponent
+    private AttachmentVersionProvider attachmentVersionProvider;
+
+    @XWikiTempDir
+    private File tmpDir;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
 
@@ -86,11 +98,73 @@ public class TemporaryFileManagerTest
     void createThumbnail()
         throws SerializeResourceReferenceException, IOException, UnsupportedResourceReferenceException
     {
+        File thumbnail = new File(tmpDir, "2.1-100.jpg");
+        when(temporaryResourceStore.createTemporaryFile(any(TemporaryResourceReference.class), eq(testContent)))
+            .thenReturn(thumbnail);
         when(resourceReferenceSerializer.serialize(any(TemporaryResourceReference.class))).thenReturn(extendedURL);
         when(extendedURL.serialize()).thenReturn("serialized value");
         assertEquals("serialized value", temporaryFileManager.createThumbnail(attachmentReference, testContent));
     }
 
+    @Test
+    void createThumbnailRemovesOtherVersions()
+        throws SerializeResourceReferenceException, IOException, UnsupportedResourceReferenceException
+    {
+        File oldThumbnail = new File(tmpDir, "1.1-50.jpg");
+        oldThumbnail.createNewFile();
+        File oldVerdict = new File(tmpDir, "1.1-50.oversize");
+        oldVerdict.createNewFile();
+        File thumbnail = new File(tmpDir, "2.1-100.jpg");
+        thumbnail.createNewFile();
+        File verdict = new File(tmpDir, "2.1-100.oversize");
+        verdict.createNewFile();
+        when(attachmentVersionProvider.getVersionKey(attachmentReference)).thenReturn("2.1-100");
+        when(temporaryResourceStore.createTemporaryFile(any(TemporaryResourceReference.class), eq(testContent)))
+            .thenReturn(thumbnail);
+        when(resourceReferenceSerializer.serialize(any(TemporaryResourceReference.class))).thenReturn(extendedURL);
+
+        temporaryFileManager.createThumbnail(attachmentReference, testContent);
+
+        assertFalse(oldThumbnail.exists());
+        assertFalse(oldVerdict.exists());
+        assertTrue(thumbnail.exists());
+        assertTrue(verdict.exists());
+    }
+
+    @Test
+    void createThumbnailOfVersion()
+        throws SerializeResourceReferenceException, IOException, UnsupportedResourceReferenceException
+    {
+        File thumbnail = new File(tmpDir, "2.1-100.jpg");
+        when(temporaryResourceStore.createTemporaryFile(any(TemporaryResourceReference.class), eq(testContent)))
+            .thenReturn(thumbnail);
+        when(resourceReferenceSerializer.serialize(any(TemporaryResourceReference.class))).thenReturn(extendedURL);
+        when(extendedURL.serialize()).thenReturn("serialized value");
+
+        assertEquals("serialized value",
+            temporaryFileManager.createThumbnail(attachmentReference, "2.1-100", testContent));
+        verify(attachmentVersionProvider, never()).getVersionKey(attachmentReference);
+    }
+
+    @Test
+    void deleteOtherCsvVersions() throws IOException
+    {
+        File oldCopy = new File(tmpDir, "1.1-50.0000abcd.csv");
+        oldCopy.createNewFile();
+        File copy = new File(tmpDir, "2.1-100.0000abcd.csv");
+        copy.createNewFile();
+        File otherFormatCopy = new File(tmpDir, "2.1-100.1234abcd.csv");
+        otherFormatCopy.createNewFile();
+        when(temporaryResourceStore.getTemporaryFile(any(TemporaryResourceReference.class)))
+            .thenReturn(new File(tmpDir, "2.1-100"));
+
+        temporaryFileManager.deleteOtherCsvVersions(attachmentReference, "2.1-100");
+
+        assertFalse(oldCopy.exists());
+        assertTrue(copy.exists());
+        assertTrue(otherFormatCopy.exists());
+    }
+
     @Test
     void getThumbnailFile() throws IOException
     {
@@ -122,4 +196,20 @@ public class TemporaryFileManagerTest
         when(extendedURL.serialize()).thenReturn("serialized value");
         assertEquals("serialized value", temporaryFileManager.getThumbnailURL(attachmentReference));
     }
+
+    @Test
+    void getThumbnailWithVersionKey()
+        throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
+    {
+        when(temporaryResourceStore.getTemporaryFile(any(TemporaryResourceReference.class))).thenReturn(file);
+        when(file.exists()).thenReturn(true);
+        when(resourceReferenceSerializer.serialize(any(TemporaryResourceReference.class))).thenReturn(extendedURL);
+        when(extendedURL.serialize()).thenReturn("serialized value");
+
+        assertTrue(temporaryFileManager.thumbnailFileExists(attachmentReference, "2.1-100"));
+        assertEquals("serialized value", temporaryFileManager.getThumbnailURL(attachmentReference, "2.1-100"));
+
+        // The version is already known, so the document holding the attachment is not loaded again.
+        verify(attachmentVersionProvider, never()).getVersionKey(attachmentReference);
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailFailureCache}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailFailureCacheTest
+{
+    private static final String KEY = "Attachment wiki:Space.Page@file.pdf@1.1-42";
+
+    @InjectMockComponents
+    private ThumbnailFailureCache failureCache;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(configuration.getThumbnailFailureTTL()).thenReturn(10L);
+        when(configuration.getThumbnailFailureMaxTTL()).thenReturn(30L);
+    }
+
+    @Test
+    void recordFailureWithBackoff()
+    {
+        assertNull(failureCache.getFailure(KEY));
+
+        assertEquals(10L, failureCache.recordFailure(KEY, new IOException("Corrupted file")));
+        assertEquals("IOException: Corrupted file", failureCache.getFailure(KEY));
+        assertEquals(20L, failureCache.recordFailure(KEY, new IOException("Corrupted file")));
+        assertEquals(30L, failureCache.recordFailure(KEY, new IOException("Corrupted file")));
+        assertEquals(30L, failureCache.recordFailure(KEY, new IOException("Corrupted file")));
+    }
+
+    @Test
+    void getFailureExpired()
+    {
+        when(configuration.getThumbnailFailureTTL()).thenReturn(0L);
+
+        failureCache.recordFailure(KEY, new IOException("Timeout"));
+
+        assertNull(failureCache.getFailure(KEY));
+    }
+}
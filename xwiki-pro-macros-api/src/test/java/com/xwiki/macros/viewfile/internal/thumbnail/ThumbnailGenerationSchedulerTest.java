@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PdfThumbnailGenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailGenerationScheduler}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailGenerationSchedulerTest
+{
+    @InjectMockComponents
+    private ThumbnailGenerationScheduler scheduler;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @MockComponent
+    private ThumbnailExecutionContextHelper contextHelper;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(configuration.getThumbnailPoolSize(anyString())).thenReturn(1);
+        when(configuration.getThumbnailQueueSize(anyString())).thenReturn(1);
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        when(contextHelper.wrap(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void scheduleRejectedWhenQueueIsFull() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<String> running = scheduler.schedule(PdfThumbnailGenerator.HINT, () -> {
+            latch.await();
+            return "first";
+        });
+        CompletableFuture<String> queued = scheduler.schedule(PdfThumbnailGenerator.HINT, () -> "second");
+
+        assertThrows(RejectedExecutionException.class,
+            () -> scheduler.schedule(PdfThumbnailGenerator.HINT, () -> "third"));
+
+        latch.countDown();
+        assertEquals("first", running.get(10, TimeUnit.SECONDS));
+        assertEquals("second", queued.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void scheduleCompletesOnError()
+    {
+        CompletableFuture<String> generation = scheduler.schedule(PdfThumbnailGenerator.HINT, () -> {
+            throw new ExceptionInInitializerError("test error");
+        });
+
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> generation.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(ExceptionInInitializerError.class, exception.getCause());
+    }
+
+    @Test
+    void disposeCancelsQueuedGenerations() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(PdfThumbnailGenerator.HINT, () -> {
+            latch.await();
+            return "first";
+        });
+        CompletableFuture<String> queued = scheduler.schedule(PdfThumbnailGenerator.HINT, () -> "second");
+
+        scheduler.dispose();
+        latch.countDown();
+
+        assertTrue(queued.isCancelled());
+    }
+
+    @Test
+    void scheduleUnknownHint()
+    {
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("unknown", () -> ""));
+    }
+}
@@ -20,7 +20,13 @@
 package com.xwiki.macros.viewfile.internal.thumbnail;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.xwiki.component.manager.ComponentManager;
@@ -34,10 +40,26 @@ import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.AttachmentVersionProvider;
 import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.metrics.ThumbnailMetrics;
 import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -50,6 +72,8 @@ public class ThumbnailGeneratorManagerTest
 {
     private static final String attachmentName = "test.doc";
 
+    private static final String VERSION = "1.1-0";
+
     @MockComponent
     ThumbnailGenerator thumbnailGenerator;
 
@@ -62,6 +86,21 @@ public class ThumbnailGeneratorManagerTest
     @MockComponent
     private ComponentManager componentManager;
 
+    @MockComponent
+    private ThumbnailGenerationScheduler scheduler;
+
+    @MockComponent
+    private ThumbnailFailureCache failureCache;
+
+    @MockComponent
+    private ThumbnailMetrics metrics;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @MockComponent
+    private AttachmentVersionProvider attachmentVersionProvider;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
 
@@ -69,21 +108,48 @@ public class ThumbnailGeneratorManagerTest
 
     private AttachmentReference attachmentReference = new AttachmentReference(attachmentName, documentReference);
 
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(attachmentVersionProvider.getVersionKey(attachmentReference)).thenReturn(VERSION);
+    }
+
     @Test
     void getThumbnailUrlFound()
         throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
     {
-        when(temporaryFileManager.thumbnailFileExists(attachmentReference)).thenReturn(true);
-        when(temporaryFileManager.getThumbnailURL(attachmentReference)).thenReturn("attachUrl");
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(true);
+        when(temporaryFileManager.getThumbnailURL(attachmentReference, VERSION)).thenReturn("attachUrl");
         assertEquals("attachUrl", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        // The version is resolved once for both the lookup and the URL.
+        verify(attachmentVersionProvider, times(1)).getVersionKey(attachmentReference);
+    }
+
+    @Test
+    void getExistingThumbnailUrl() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(true);
+        when(temporaryFileManager.getThumbnailURL(attachmentReference, VERSION)).thenReturn("attachUrl");
+        assertEquals("attachUrl", thumbnailGeneratorManager.getExistingThumbnailUrl(attachmentReference));
+        verify(metrics).recordCacheLookup(true);
+
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
+        assertNull(thumbnailGeneratorManager.getExistingThumbnailUrl(attachmentReference));
+        verify(metrics).recordCacheLookup(false);
+        verify(scheduler, never()).schedule(anyString(), any());
+
+        // The files without thumbnail are not looked for.
+        assertNull(thumbnailGeneratorManager.getExistingThumbnailUrl(
+            new AttachmentReference("test.txt", documentReference)));
+        verify(metrics, times(2)).recordCacheLookup(anyBoolean());
     }
 
     @Test
     void getThumbnailUrlFoundError()
         throws IOException, SerializeResourceReferenceException, UnsupportedResourceReferenceException
     {
-        when(temporaryFileManager.thumbnailFileExists(attachmentReference)).thenReturn(true);
-        when(temporaryFileManager.getThumbnailURL(attachmentReference)).thenThrow(
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(true);
+        when(temporaryFileManager.getThumbnailURL(attachmentReference, VERSION)).thenThrow(
             new SerializeResourceReferenceException("test throw"));
         assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
         assertEquals("There was an error while attempting to get the thumbnail URL. "
@@ -93,10 +159,89 @@ public class ThumbnailGeneratorManagerTest
     @Test
     void getThumbnailUrlNotFound() throws Exception
     {
-        when(temporaryFileManager.thumbnailFileExists(attachmentReference)).thenReturn(false);
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
         when(componentManager.getInstance(ThumbnailGenerator.class, OfficeThumbnailGenerator.HINT)).thenReturn(
             thumbnailGenerator);
-        when(thumbnailGenerator.generateThumbnail(attachmentReference)).thenReturn("generated url for doc");
+        when(thumbnailGenerator.generateThumbnail(attachmentReference, VERSION)).thenReturn("generated url for doc");
+        when(scheduler.schedule(eq(OfficeThumbnailGenerator.HINT), any())).thenAnswer(
+            invocation -> CompletableFuture.completedFuture(invocation.<Callable<String>>getArgument(1).call()));
+        XWikiContext wikiContext = mock(XWikiContext.class);
+        XWiki wiki = mock(XWiki.class);
+        XWikiDocument document = mock(XWikiDocument.class);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+        when(document.getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getLongSize()).thenReturn(1234L);
+
         assertEquals("generated url for doc", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+
+        // The lookup was already recorded when looking for the existing thumbnail.
+        verify(metrics, never()).recordCacheLookup(anyBoolean());
+        verify(metrics).recordGeneration(eq(OfficeThumbnailGenerator.HINT), anyLong(), eq(1234L));
+    }
+
+    @Test
+    void getThumbnailUrlQueueFull() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
+        when(componentManager.getInstance(ThumbnailGenerator.class, OfficeThumbnailGenerator.HINT)).thenReturn(
+            thumbnailGenerator);
+        when(scheduler.schedule(eq(OfficeThumbnailGenerator.HINT), any())).thenThrow(
+            new RejectedExecutionException());
+        assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        assertEquals("Too many pending thumbnail generations, skipping the thumbnail of "
+            + "[Attachment testWiki:testSpace.testPage@test.doc].", logCapture.getMessage(0));
+    }
+
+    @Test
+    void getThumbnailUrlJoinsPendingGeneration() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
+        when(componentManager.getInstance(ThumbnailGenerator.class, OfficeThumbnailGenerator.HINT)).thenReturn(
+            thumbnailGenerator);
+        CompletableFuture<String> generation = new CompletableFuture<>();
+        when(scheduler.schedule(eq(OfficeThumbnailGenerator.HINT), any())).thenReturn(generation);
+
+        // The generation is still running, so both callers fall back to the placeholder.
+        assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        verify(scheduler, times(1)).schedule(eq(OfficeThumbnailGenerator.HINT), any());
+
+        generation.complete("generated url for doc");
+        thumbnailGeneratorManager.getThumbnailUrl(attachmentReference);
+        verify(scheduler, times(2)).schedule(eq(OfficeThumbnailGenerator.HINT), any());
+    }
+
+    @Test
+    void getThumbnailUrlRecordsFailure() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
+        when(componentManager.getInstance(ThumbnailGenerator.class, OfficeThumbnailGenerator.HINT)).thenReturn(
+            thumbnailGenerator);
+        IOException error = new IOException("Corrupted file");
+        when(scheduler.schedule(eq(OfficeThumbnailGenerator.HINT), any())).thenReturn(
+            CompletableFuture.failedFuture(error));
+        when(failureCache.recordFailure(anyString(), eq(error))).thenReturn(300L);
+
+        assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        assertEquals("Failed to generate the thumbnail of [Attachment testWiki:testSpace.testPage@test.doc], it "
+            + "will be retried in [300] seconds. Root cause is: [IOException: Corrupted file]",
+            logCapture.getMessage(0));
+        assertEquals("There was an error while attempting to get the thumbnail URL. "
+            + "Root cause is: [IOException: Corrupted file]", logCapture.getMessage(1));
+    }
+
+    @Test
+    void getThumbnailUrlRecentlyFailed() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(attachmentReference, VERSION)).thenReturn(false);
+        when(componentManager.getInstance(ThumbnailGenerator.class, OfficeThumbnailGenerator.HINT)).thenReturn(
+            thumbnailGenerator);
+        when(failureCache.getFailure(anyString())).thenReturn("IOException: Corrupted file");
+
+        assertEquals("", thumbnailGeneratorManager.getThumbnailUrl(attachmentReference));
+        verify(scheduler, never()).schedule(any(), any());
     }
 }
@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.resource.ResourceReferenceHandlerChain;
+import org.xwiki.resource.temporary.TemporaryResourceReference;
+import org.xwiki.resource.temporary.TemporaryResourceStore;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailResourceReferenceHandler}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailResourceReferenceHandlerTest
+{
+    private static final byte[] CONTENT = "thumbnail".getBytes();
+
+    private static final String ETAG = "\"1.1-42.jpg-9\"";
+
+    @InjectMockComponents
+    private ThumbnailResourceReferenceHandler handler;
+
+    @MockComponent
+    private TemporaryResourceStore temporaryResourceStore;
+
+    @MockComponent
+    private ContextualAuthorizationManager contextualAuthorization;
+
+    @MockComponent
+    private AuthorizationManager authorization;
+
+    @MockComponent
+    private Container container;
+
+    @Mock
+    private ServletRequest request;
+
+    @Mock
+    private ServletResponse response;
+
+    @Mock
+    private HttpServletRequest httpRequest;
+
+    @Mock
+    private HttpServletResponse httpResponse;
+
+    @Mock
+    private ResourceReferenceHandlerChain chain;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    private final DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+    private final TemporaryResourceReference thumbnailReference = new TemporaryResourceReference(
+        TemporaryFileManager.MODULE_ID, List.of(TemporaryFileManager.THUMBNAILS_FOLDER, "file.pdf", "1.1-42.jpg"),
+        documentReference);
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(container.getRequest()).thenReturn(request);
+        when(container.getResponse()).thenReturn(response);
+        when(request.getHttpServletRequest()).thenReturn(httpRequest);
+        when(response.getHttpServletResponse()).thenReturn(httpResponse);
+        when(httpResponse.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+            }
+
+            @Override
+            public void write(int b)
+            {
+                output.write(b);
+            }
+        });
+
+        File thumbnail = new File(tmpDir, "1.1-42.jpg");
+        Files.write(thumbnail.toPath(), CONTENT);
+        when(temporaryResourceStore.getTemporaryFile(thumbnailReference)).thenReturn(thumbnail);
+        when(contextualAuthorization.hasAccess(Right.VIEW, documentReference)).thenReturn(true);
+    }
+
+    @Test
+    void handleThumbnail() throws Exception
+    {
+        handler.handle(thumbnailReference, chain);
+
+        verify(httpResponse).setHeader("ETag", ETAG);
+        verify(httpResponse).setHeader("Cache-Control", "private, max-age=31536000, immutable");
+        verify(httpResponse).setContentType("image/jpeg");
+        assertArrayEquals(CONTENT, output.toByteArray());
+        verify(chain, never()).handleNext(any());
+    }
+
+    @Test
+    void handlePublicThumbnail() throws Exception
+    {
+        when(authorization.hasAccess(Right.VIEW, null, documentReference)).thenReturn(true);
+
+        handler.handle(thumbnailReference, chain);
+
+        verify(httpResponse).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    }
+
+    @Test
+    void handleNotModified() throws Exception
+    {
+        when(httpRequest.getHeader("If-None-Match")).thenReturn(ETAG);
+
+        handler.handle(thumbnailReference, chain);
+
+        verify(httpResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(httpResponse, never()).getOutputStream();
+    }
+
+    @Test
+    void handleWithoutViewRight() throws Exception
+    {
+        when(contextualAuthorization.hasAccess(Right.VIEW, documentReference)).thenReturn(false);
+
+        handler.handle(thumbnailReference, chain);
+
+        verify(chain).handleNext(thumbnailReference);
+        verify(httpResponse, never()).setHeader(any(), any());
+    }
+
+    @Test
+    void handleOtherTemporaryResource() throws Exception
+    {
+        TemporaryResourceReference otherReference =
+            new TemporaryResourceReference("othermodule", List.of("file.txt"), documentReference);
+
+        handler.handle(otherReference, chain);
+
+        verify(chain).handleNext(otherReference);
+    }
+
+    @Test
+    void handleOtherThumbnailFolderFile() throws Exception
+    {
+        TemporaryResourceReference verdictReference = new TemporaryResourceReference(TemporaryFileManager.MODULE_ID,
+            List.of(TemporaryFileManager.THUMBNAILS_FOLDER, "file.pdf", "1.1-42.oversize"), documentReference);
+
+        handler.handle(verdictReference, chain);
+
+        verify(chain).handleNext(verdictReference);
+        verify(temporaryResourceStore, never()).getTemporaryFile(verdictReference);
+        verify(httpResponse, never()).setHeader(any(), any());
+    }
+}
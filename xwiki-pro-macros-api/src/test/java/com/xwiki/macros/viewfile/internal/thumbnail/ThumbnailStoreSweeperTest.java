@@ -0,0 +1,257 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailStoreSweeper}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailStoreSweeperTest
+{
+    @InjectMockComponents
+    private ThumbnailStoreSweeper sweeper;
+
+    @MockComponent
+    private TemporaryFileManager temporaryFileManager;
+
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @Mock
+    private XWikiContext wikiContext;
+
+    @Mock
+    private XWiki wiki;
+
+    @Mock
+    private XWikiDocument document;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    private final DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+    private File pageFolder;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(configuration.getThumbnailStoreSweepInterval()).thenReturn(60L);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        pageFolder = new File(tmpDir, "wiki/Space/Page");
+        when(temporaryFileManager.getThumbnailStoreFolder()).thenReturn(tmpDir);
+        when(temporaryFileManager.getAttachmentFolder(any(AttachmentReference.class), anyString())).thenAnswer(
+            invocation -> new File(pageFolder, invocation.<String>getArgument(1) + '/'
+                + invocation.<AttachmentReference>getArgument(0).getName()));
+        when(configuration.getThumbnailStoreQuota()).thenReturn(-1L);
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wiki.exists(documentReference, wikiContext)).thenReturn(true);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+        when(document.getAttachment(any())).thenReturn(mock(XWikiAttachment.class));
+    }
+
+    @Test
+    void sweepEvictsLeastRecentlyUsed() throws Exception
+    {
+        File older = createThumbnail("older.pdf", 1000L);
+        File newer = createThumbnail("newer.pdf", 2000L);
+        when(configuration.getThumbnailStoreQuota()).thenReturn(15L);
+
+        sweeper.sweep();
+
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+        assertEquals(10L, sweeper.getStoreSize());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void sweepRemovesOrphans() throws Exception
+    {
+        File existing = createThumbnail("existing.pdf", 1000L);
+        File orphan = createThumbnail("deleted.pdf", 1000L);
+        when(document.getAttachment("deleted.pdf")).thenReturn(null);
+
+        sweeper.sweep();
+
+        assertTrue(existing.exists());
+        assertFalse(orphan.getParentFile().exists());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void sweepRemovesOrphansOfDeletedDocuments() throws Exception
+    {
+        File orphan = createThumbnail("file.pdf", 1000L);
+        when(wiki.exists(documentReference, wikiContext)).thenReturn(false);
+
+        sweeper.sweep();
+
+        assertFalse(orphan.getParentFile().exists());
+        assertEquals(0, sweeper.getEntryCount());
+        verify(wiki, never()).getDocument(documentReference, wikiContext);
+    }
+
+    @Test
+    void sweepCountsOnlyThumbnails() throws Exception
+    {
+        File thumbnail = createThumbnail("file.pdf", 1000L);
+        File verdict = new File(thumbnail.getParentFile(), "1.1-1.oversize");
+        Files.write(verdict.toPath(), "0123456789".getBytes());
+        when(configuration.getThumbnailStoreQuota()).thenReturn(15L);
+
+        sweeper.sweep();
+
+        assertTrue(thumbnail.exists());
+        assertTrue(verdict.exists());
+        assertEquals(10L, sweeper.getStoreSize());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void sweepRemovesLegacyThumbnails() throws Exception
+    {
+        File thumbnail = createThumbnail("file.pdf", 1000L);
+        File legacyThumbnail = new File(pageFolder, "thumbnails/file.pdf.jpg");
+        Files.write(legacyThumbnail.toPath(), "0123456789".getBytes());
+
+        sweeper.sweep();
+
+        assertTrue(thumbnail.exists());
+        assertFalse(legacyThumbnail.exists());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void sweepRemovesOrphanCsvCopies() throws Exception
+    {
+        File csvCopy = createCsvCopy("existing.csv");
+        File orphan = createCsvCopy("deleted.csv");
+        when(document.getAttachment("deleted.csv")).thenReturn(null);
+
+        sweeper.sweep();
+
+        assertTrue(csvCopy.exists());
+        assertFalse(orphan.getParentFile().exists());
+        // The CSV copies count toward the quota.
+        assertEquals(10L, sweeper.getStoreSize());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void sweepEvictsCsvCopies() throws Exception
+    {
+        File csvCopy = createCsvCopy("file.csv");
+        csvCopy.setLastModified(1000L);
+        File thumbnail = createThumbnail("file.pdf", 2000L);
+        File pendingCsvCopy = new File(csvCopy.getParentFile(), "1.1-1.0000abcd.csv123.tmp");
+        Files.write(pendingCsvCopy.toPath(), "name,value".getBytes());
+        when(configuration.getThumbnailStoreQuota()).thenReturn(15L);
+
+        sweeper.sweep();
+
+        assertFalse(csvCopy.exists());
+        assertTrue(thumbnail.exists());
+        // The copies being written don't count toward the quota.
+        assertTrue(pendingCsvCopy.exists());
+        assertEquals(10L, sweeper.getStoreSize());
+        assertEquals(1, sweeper.getEntryCount());
+    }
+
+    @Test
+    void onDocumentDeleted() throws Exception
+    {
+        File thumbnail = createThumbnail("file.pdf", 1000L);
+        File csvCopy = createCsvCopy("file.csv");
+        File documentThumbnails = new File(pageFolder, "thumbnails");
+        File documentCsvCopies = new File(pageFolder, "csv");
+        when(temporaryFileManager.getDocumentThumbnailFolder(documentReference)).thenReturn(documentThumbnails);
+        when(temporaryFileManager.getDocumentCsvFolder(documentReference)).thenReturn(documentCsvCopies);
+        when(document.getLocale()).thenReturn(Locale.ROOT);
+        when(document.getDocumentReference()).thenReturn(documentReference);
+
+        sweeper.onEvent(null, document, null);
+
+        assertFalse(thumbnail.exists());
+        assertFalse(documentThumbnails.exists());
+        assertFalse(csvCopy.exists());
+        assertFalse(documentCsvCopies.exists());
+    }
+
+    private File createThumbnail(String attachmentName, long lastModified) throws Exception
+    {
+        File thumbnail = new File(pageFolder, "thumbnails/" + attachmentName + "/1.1-1.jpg");
+        thumbnail.getParentFile().mkdirs();
+        Files.write(thumbnail.toPath(), "0123456789".getBytes());
+        thumbnail.setLastModified(lastModified);
+        return thumbnail;
+    }
+
+    private File createCsvCopy(String attachmentName) throws Exception
+    {
+        File csvCopy = new File(pageFolder, "csv/" + attachmentName + "/1.1-1.0000abcd.csv");
+        csvCopy.getParentFile().mkdirs();
+        Files.write(csvCopy.toPath(), "name,value".getBytes());
+        return csvCopy;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailWarmupJob}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailWarmupJobTest
+{
+    private static final String WIKI = "testWiki";
+
+    private static final WikiReference WIKI_REFERENCE = new WikiReference(WIKI);
+
+    private static final DocumentReference DOCUMENT_A = new DocumentReference(WIKI, "Space", "A");
+
+    private static final DocumentReference DOCUMENT_B = new DocumentReference(WIKI, "Space", "B");
+
+    private static final AttachmentReference ATTACHMENT_A = new AttachmentReference("a.pdf", DOCUMENT_A);
+
+    private static final AttachmentReference ATTACHMENT_B = new AttachmentReference("b.pdf", DOCUMENT_B);
+
+    @InjectMockComponents
+    private ThumbnailWarmupJob job;
+
+    @MockComponent
+    private ThumbnailGeneratorManager thumbnailGeneratorManager;
+
+    @MockComponent
+    private TemporaryFileManager temporaryFileManager;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private Environment environment;
+
+    @MockComponent
+    private Provider<XWikiContext> wikiContextProvider;
+
+    @MockComponent
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Mock
+    private XWikiContext wikiContext;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    private final List<String> statements = new ArrayList<>();
+
+    private final Query countQuery = mock(Query.class, RETURNS_SELF);
+
+    private final Query selectQuery = mock(Query.class, RETURNS_SELF);
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(environment.getPermanentDirectory()).thenReturn(tmpDir);
+        when(thumbnailGeneratorManager.getSupportedExtensions()).thenReturn(Set.of("pdf"));
+        when(documentReferenceResolver.resolve("Space.A", WIKI_REFERENCE)).thenReturn(DOCUMENT_A);
+        when(documentReferenceResolver.resolve("Space.B", WIKI_REFERENCE)).thenReturn(DOCUMENT_B);
+        when(queryManager.createQuery(anyString(), eq(Query.HQL))).thenAnswer(invocation -> {
+            String statement = invocation.getArgument(0);
+            this.statements.add(statement);
+            return statement.startsWith("select count(*) ") ? this.countQuery : this.selectQuery;
+        });
+        doReturn(List.of(2L)).when(this.countQuery).execute();
+        doReturn(List.of(new Object[] { "Space.A", "a.pdf" }, new Object[] { "Space.B", "b.pdf" }), List.of())
+            .when(this.selectQuery).execute();
+        when(thumbnailGeneratorManager.scheduleThumbnail(any(AttachmentReference.class)))
+            .thenReturn(CompletableFuture.completedFuture("url"));
+    }
+
+    @Test
+    void run() throws Exception
+    {
+        when(temporaryFileManager.thumbnailFileExists(ATTACHMENT_A)).thenReturn(true);
+
+        run(createRequest());
+
+        ThumbnailWarmupJobStatus status = job.getStatus();
+        assertTrue(status.isCancelable());
+        assertEquals(2, status.getAttachmentCount());
+        assertEquals(1, status.getExistingCount());
+        assertEquals(1, status.getGeneratedCount());
+        assertEquals(0, status.getFailedCount());
+        verify(thumbnailGeneratorManager, never()).scheduleThumbnail(ATTACHMENT_A);
+        verify(thumbnailGeneratorManager).scheduleThumbnail(ATTACHMENT_B);
+        verify(wikiContext).setWikiId(WIKI);
+
+        // Count, first batch and an empty second batch starting after the last attachment of the first one.
+        assertEquals(3, this.statements.size());
+        assertEquals("select count(*) from XWikiDocument doc, XWikiAttachment attachment where attachment.docId ="
+            + " doc.id and (lower(attachment.filename) like :extension0)", this.statements.get(0));
+        assertEquals("select doc.fullName, attachment.filename from XWikiDocument doc, XWikiAttachment attachment"
+            + " where attachment.docId = doc.id and (lower(attachment.filename) like :extension0)"
+            + " order by doc.fullName, attachment.filename", this.statements.get(1));
+        assertEquals("select doc.fullName, attachment.filename from XWikiDocument doc, XWikiAttachment attachment"
+            + " where attachment.docId = doc.id and (lower(attachment.filename) like :extension0) and"
+            + " (doc.fullName > :lastDocument or (doc.fullName = :lastDocument and attachment.filename >"
+            + " :lastAttachment)) order by doc.fullName, attachment.filename", this.statements.get(2));
+        verify(countQuery).setWiki(WIKI);
+        verify(countQuery).bindValue("extension0", "%.pdf");
+        verify(selectQuery, times(2)).setLimit(100);
+        verify(selectQuery).bindValue("lastDocument", "Space.B");
+        verify(selectQuery).bindValue("lastAttachment", "b.pdf");
+
+        // The checkpoint is removed once all the attachments are processed.
+        assertFalse(getCheckpoint().exists());
+    }
+
+    @Test
+    void runInSpace() throws Exception
+    {
+        ThumbnailWarmupRequest request = createRequest();
+        request.setSpace("My_Space");
+
+        run(request);
+
+        assertTrue(this.statements.get(0).endsWith(
+            " and (doc.space = :space or doc.space like :spacePrefix escape '!')"));
+        verify(countQuery).bindValue("space", "My_Space");
+        // The LIKE wildcards of the space name are escaped.
+        verify(countQuery).bindValue("spacePrefix", "My!_Space.%");
+    }
+
+    @Test
+    void runDryRun() throws Exception
+    {
+        ThumbnailWarmupRequest request = createRequest();
+        request.setDryRun(true);
+
+        run(request);
+
+        assertEquals(2, job.getStatus().getAttachmentCount());
+        assertEquals(1, this.statements.size());
+        verify(thumbnailGeneratorManager, never()).scheduleThumbnail(any());
+        verify(temporaryFileManager, never()).thumbnailFileExists(any());
+    }
+
+    @Test
+    void runFailedGeneration() throws Exception
+    {
+        when(thumbnailGeneratorManager.scheduleThumbnail(ATTACHMENT_A))
+            .thenReturn(CompletableFuture.completedFuture(""));
+
+        run(createRequest());
+
+        assertEquals(1, job.getStatus().getGeneratedCount());
+        assertEquals(1, job.getStatus().getFailedCount());
+    }
+
+    @Test
+    void cancelAndResume() throws Exception
+    {
+        when(thumbnailGeneratorManager.scheduleThumbnail(ATTACHMENT_A)).thenAnswer(invocation -> {
+            job.getStatus().cancel();
+            return CompletableFuture.completedFuture("url");
+        });
+
+        run(createRequest());
+
+        // The job stops after the attachment being processed when canceled, and saves its position.
+        assertTrue(job.getStatus().isCanceled());
+        assertEquals(1, job.getStatus().getGeneratedCount());
+        verify(thumbnailGeneratorManager, never()).scheduleThumbnail(ATTACHMENT_B);
+        File checkpoint = getCheckpoint();
+        assertEquals(List.of("Space.A", "a.pdf"), Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8));
+
+        this.statements.clear();
+        doReturn(List.of(1L)).when(this.countQuery).execute();
+        doReturn(List.<Object[]>of(new Object[] { "Space.B", "b.pdf" }), List.of()).when(this.selectQuery).execute();
+
+        run(createRequest());
+
+        // The resumed run only counts and processes the attachments after the checkpoint.
+        assertEquals(1, job.getStatus().getAttachmentCount());
+        assertTrue(this.statements.get(0).contains(" and (doc.fullName > :lastDocument"));
+        verify(countQuery).bindValue("lastDocument", "Space.A");
+        verify(countQuery).bindValue("lastAttachment", "a.pdf");
+        verify(thumbnailGeneratorManager).scheduleThumbnail(ATTACHMENT_B);
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    void runWithoutResume() throws Exception
+    {
+        File checkpoint = getCheckpoint();
+        Files.createDirectories(checkpoint.getParentFile().toPath());
+        Files.write(checkpoint.toPath(), List.of("Space.A", "a.pdf"), StandardCharsets.UTF_8);
+        ThumbnailWarmupRequest request = createRequest();
+        request.setResume(false);
+
+        run(request);
+
+        // The previous progress is ignored, all the attachments are processed again.
+        assertEquals(2, job.getStatus().getAttachmentCount());
+        assertFalse(this.statements.get(0).contains(":lastDocument"));
+        verify(thumbnailGeneratorManager).scheduleThumbnail(ATTACHMENT_A);
+        verify(thumbnailGeneratorManager).scheduleThumbnail(ATTACHMENT_B);
+        assertFalse(checkpoint.exists());
+    }
+
+    private ThumbnailWarmupRequest createRequest()
+    {
+        ThumbnailWarmupRequest request = new ThumbnailWarmupRequest();
+        request.setWiki(WIKI);
+        request.setId(ThumbnailWarmupRequest.getJobId(WIKI, null));
+        return request;
+    }
+
+    private void run(ThumbnailWarmupRequest request) throws Exception
+    {
+        job.initialize(request);
+        job.runInternal();
+    }
+
+    private File getCheckpoint()
+    {
+        // The checkpoint is named after the job identifier.
+        return new File(tmpDir, "viewfilemacro/warmup/viewfile%2Fthumbnail%2Fwarmup%2FtestWiki.txt");
+    }
+}
@@ -65,6 +65,8 @@ public class OfficeThumbnailGeneratorTest
 {
     private static final String FILENAME = "test.docx";
 
+    private static final String VERSION = "1.1-0";
+
     @InjectMockComponents
     OfficeThumbnailGenerator officeThumbnailGenerator;
 
@@ -104,15 +106,15 @@ public class OfficeThumbnailGeneratorTest
         when(wikiContext.getWiki()).thenReturn(wiki);
         when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
         when(document.getAttachment(FILENAME)).thenReturn(attachment);
-        when(temporaryFileManager.createThumbnail(eq(attachmentReference), any(ByteArrayInputStream.class))).thenReturn(
-            "content");
+        when(temporaryFileManager.createThumbnail(eq(attachmentReference), eq(VERSION),
+            any(ByteArrayInputStream.class))).thenReturn("content");
     }
 
     @Test
     void generateThumbnailOfficeNotConnected() throws Exception
     {
         when(officeThumbnailGeneratorUtils.isOfficeServerConnected()).thenReturn(false);
-        assertEquals("", officeThumbnailGenerator.generateThumbnail(attachmentReference));
+        assertEquals("", officeThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
         assertEquals("Unable to generate thumbnail for office file [Attachment testWiki:testSpace.testPage@test.docx]"
             + ". Office server is not connected.", logCapture.getMessage(0));
     }
@@ -124,7 +126,27 @@ public class OfficeThumbnailGeneratorTest
         InputStream is = new ByteArrayInputStream("test".getBytes());
         when(attachment.getContentInputStream(wikiContext)).thenReturn(is);
         when(officeThumbnailGeneratorUtils.getImageBytes(is)).thenReturn(createTestPng());
-        assertEquals("content", officeThumbnailGenerator.generateThumbnail(attachmentReference));
+        assertEquals("content", officeThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
+    @Test
+    void generateThumbnailMissingAttachment() throws Exception
+    {
+        when(officeThumbnailGeneratorUtils.isOfficeServerConnected()).thenReturn(true);
+        when(document.getAttachment(FILENAME)).thenReturn(null);
+        assertEquals("", officeThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
+    @Test
+    void readImageSubsampled() throws Exception
+    {
+        BufferedImage img = new BufferedImage(1500, 2120, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", baos);
+
+        BufferedImage result = OfficeThumbnailGenerator.readImage(baos.toByteArray());
+        assertEquals(150, result.getWidth());
+        assertEquals(212, result.getHeight());
     }
 
     private byte[] createTestPng() throws IOException
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.generators;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import org.jodconverter.core.office.OfficeException;
+import org.junit.jupiter.api.Test;
+import org.xwiki.officeimporter.server.OfficeServer;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link OfficeThumbnailGeneratorUtils}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class OfficeThumbnailGeneratorUtilsTest
+{
+    @InjectMockComponents
+    private OfficeThumbnailGeneratorUtils officeUtils;
+
+    @MockComponent
+    private OfficeServer officeServer;
+
+    @Test
+    void isOfficeServerConnectedReusesState()
+    {
+        when(officeServer.getState()).thenReturn(OfficeServer.ServerState.CONNECTED);
+
+        assertTrue(officeUtils.isOfficeServerConnected());
+        assertTrue(officeUtils.isOfficeServerConnected());
+        verify(officeServer, times(1)).refreshState();
+    }
+
+    @Test
+    void getImageBytesWhenNotConnected()
+    {
+        when(officeServer.getState()).thenReturn(OfficeServer.ServerState.NOT_CONNECTED);
+
+        assertFalse(officeUtils.isOfficeServerConnected());
+        assertThrows(OfficeException.class,
+            () -> officeUtils.getImageBytes(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    void firstPageStoreProperties()
+    {
+        // The export filter of the office server only renders the first page, or the first sheet of a spreadsheet.
+        assertEquals(Map.of("FilterData", Map.of("PageRange", "1")),
+            OfficeThumbnailGeneratorUtils.FIRST_PAGE_STORE_PROPERTIES);
+    }
+}
@@ -19,14 +19,19 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 
 import javax.inject.Provider;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -35,6 +40,7 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
@@ -43,9 +49,12 @@ import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
@@ -60,6 +69,8 @@ class PdfThumbnailGeneratorTest
 {
     private static final String FILENAME = "test.pdf";
 
+    private static final String VERSION = "1.1-0";
+
     @InjectMockComponents
     PdfThumbnailGenerator pdfThumbnailGenerator;
 
@@ -72,6 +83,9 @@ class PdfThumbnailGeneratorTest
     @MockComponent
     private TemporaryFileManager temporaryFileManager;
 
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
     @Mock
     private XWiki wiki;
 
@@ -88,14 +102,78 @@ class PdfThumbnailGeneratorTest
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.ERROR);
 
+    @XWikiTempDir
+    private File tmpDir;
+
     @Test
     void generateThumbnail() throws Exception
+    {
+        mockAttachment(createPDF());
+
+        assertEquals("content", pdfThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
+    @Test
+    void generateThumbnailFromSpooledFile() throws Exception
+    {
+        byte[] pdfBytes = createPDF();
+        mockAttachment(pdfBytes);
+        when(attachment.getLongSize()).thenReturn((long) pdfBytes.length);
+        when(configuration.getThumbnailSpoolThreshold()).thenReturn(1L);
+        File spooledFile = new File(tmpDir, "spooled.pdf");
+        when(temporaryFileManager.spool(any(InputStream.class), eq(".pdf"))).thenAnswer(invocation -> {
+            Files.copy(invocation.<InputStream>getArgument(0), spooledFile.toPath());
+            return spooledFile;
+        });
+
+        assertEquals("content", pdfThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+        assertFalse(spooledFile.exists());
+    }
+
+    @Test
+    void generateThumbnailMissingAttachment() throws Exception
+    {
+        when(wikiContextProvider.get()).thenReturn(wikiContext);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+
+        assertEquals("", pdfThumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
+    @Test
+    void renderFirstPageAtThumbnailSize() throws Exception
+    {
+        try (PDDocument pdf = new PDDocument()) {
+            pdf.addPage(new PDPage(PDRectangle.A0));
+            BufferedImage image = PdfThumbnailGenerator.renderFirstPage(pdf, false);
+            assertTrue(image.getWidth() <= PdfThumbnailGenerator.THUMBNAIL_WIDTH);
+            assertTrue(image.getHeight() <= PdfThumbnailGenerator.THUMBNAIL_HEIGHT);
+        }
+    }
+
+    @Test
+    void getRenderScaleOfRotatedPage()
+    {
+        PDPage page = new PDPage(PDRectangle.A4);
+        page.setRotation(90);
+        // The rotated A4 page is displayed in landscape, so its width limits the scale.
+        assertEquals(PdfThumbnailGenerator.THUMBNAIL_WIDTH / PDRectangle.A4.getHeight(),
+            PdfThumbnailGenerator.getRenderScale(page));
+    }
+
+    private void mockAttachment(byte[] pdfBytes) throws Exception
     {
         when(wikiContextProvider.get()).thenReturn(wikiContext);
         when(wikiContext.getWiki()).thenReturn(wiki);
         when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
-        when(temporaryFileManager.createThumbnail(eq(attachmentReference), any(ByteArrayInputStream.class))).thenReturn(
-            "content");
+        when(temporaryFileManager.createThumbnail(eq(attachmentReference), eq(VERSION),
+            any(ByteArrayInputStream.class))).thenReturn("content");
+        when(document.getAttachment(FILENAME)).thenReturn(attachment);
+        when(attachment.getContentInputStream(wikiContext)).thenReturn(new ByteArrayInputStream(pdfBytes));
+    }
+
+    private byte[] createPDF() throws Exception
+    {
         // Create a real valid PDF with PDFBox.
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
@@ -111,10 +189,6 @@ class PdfThumbnailGeneratorTest
             cs.close();
             pdf.save(baos);
         }
-        byte[] pdfBytes = baos.toByteArray();
-
-        when(document.getAttachment(FILENAME)).thenReturn(attachment);
-        when(attachment.getContentInputStream(wikiContext)).thenReturn(new ByteArrayInputStream(pdfBytes));
-        assertEquals("content", pdfThumbnailGenerator.generateThumbnail(attachmentReference));
+        return baos.toByteArray();
     }
 }
@@ -19,8 +19,13 @@
  */
 package com.xwiki.macros.viewfile.internal.thumbnail.generators;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 
 import javax.inject.Provider;
 
@@ -35,6 +40,7 @@ import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
@@ -43,9 +49,11 @@ import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
 import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -59,6 +67,8 @@ import static org.mockito.Mockito.when;
 @ComponentTest
 public class PresentationThumbnailGeneratorTest
 {
+    private static final String VERSION = "1.1-0";
+
     @InjectMockComponents
     private PresentationThumbnailGenerator thumbnailGenerator;
 
@@ -68,6 +78,12 @@ public class PresentationThumbnailGeneratorTest
     @MockComponent
     private TemporaryFileManager temporaryFileManager;
 
+    @MockComponent
+    private ViewFileConfiguration configuration;
+
+    @XWikiTempDir
+    private File tmpDir;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
 
@@ -99,10 +115,18 @@ public class PresentationThumbnailGeneratorTest
         AttachmentReference attachmentReference = new AttachmentReference(attachmentName, documentReference);
         when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
         when(document.getAttachment(attachmentName)).thenReturn(attachment);
-        assertEquals("", thumbnailGenerator.generateThumbnail(attachmentReference));
+        assertEquals("", thumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
         assertEquals("Failed to identify the presentation file extension.", logCapture.getMessage(0));
     }
 
+    @Test
+    void generateThumbnailMissingAttachment() throws Exception
+    {
+        AttachmentReference attachmentReference = new AttachmentReference("test.pptx", documentReference);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+        assertEquals("", thumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
     @Test
     void generateThumbnailInvalid() throws Exception
     {
@@ -113,7 +137,7 @@ public class PresentationThumbnailGeneratorTest
         when(attachment.getContentInputStream(wikiContext)).thenReturn(
             new ByteArrayInputStream("some content".getBytes()));
         NotOfficeXmlFileException exception = assertThrows(NotOfficeXmlFileException.class, () -> {
-            this.thumbnailGenerator.generateThumbnail(attachmentReference);
+            this.thumbnailGenerator.generateThumbnail(attachmentReference, VERSION);
         });
         assertEquals("No valid entries or contents found, this is not a valid OOXML (Office Open XML) file",
             exception.getMessage());
@@ -135,9 +159,9 @@ public class PresentationThumbnailGeneratorTest
         when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
         when(document.getAttachment(attachmentName)).thenReturn(attachment);
         when(attachment.getContentInputStream(wikiContext)).thenReturn(is);
-        when(temporaryFileManager.createThumbnail(eq(attachmentReference), any(ByteArrayInputStream.class))).thenReturn(
-            "test pptx result");
-        assertEquals("test pptx result", thumbnailGenerator.generateThumbnail(attachmentReference));
+        when(temporaryFileManager.createThumbnail(eq(attachmentReference), eq(VERSION),
+            any(ByteArrayInputStream.class))).thenReturn("test pptx result");
+        assertEquals("test pptx result", thumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
     }
 
     @Test
@@ -156,9 +180,50 @@ public class PresentationThumbnailGeneratorTest
         when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
         when(document.getAttachment(attachmentName)).thenReturn(attachment);
         when(attachment.getContentInputStream(wikiContext)).thenReturn(is);
-        when(temporaryFileManager.createThumbnail(eq(attachmentReference), any(ByteArrayInputStream.class))).thenReturn(
-            "test ppt result");
+        when(temporaryFileManager.createThumbnail(eq(attachmentReference), eq(VERSION),
+            any(ByteArrayInputStream.class))).thenReturn("test ppt result");
 
-        assertEquals("test ppt result", thumbnailGenerator.generateThumbnail(attachmentReference));
+        assertEquals("test ppt result", thumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+    }
+
+    @Test
+    void generateThumbnailPPTXFromSpooledFile() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (XMLSlideShow ppt = new XMLSlideShow()) {
+            ppt.createSlide();
+            ppt.write(baos);
+        }
+        byte[] pptxBytes = baos.toByteArray();
+
+        String attachmentName = "test.pptx";
+        AttachmentReference attachmentReference = new AttachmentReference(attachmentName, documentReference);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+        when(document.getAttachment(attachmentName)).thenReturn(attachment);
+        when(attachment.getContentInputStream(wikiContext)).thenReturn(new ByteArrayInputStream(pptxBytes));
+        when(attachment.getLongSize()).thenReturn((long) pptxBytes.length);
+        when(configuration.getThumbnailSpoolThreshold()).thenReturn(1L);
+        File spooledFile = new File(tmpDir, "spooled.pptx");
+        when(temporaryFileManager.spool(any(InputStream.class), eq(".pptx"))).thenAnswer(invocation -> {
+            Files.copy(invocation.<InputStream>getArgument(0), spooledFile.toPath());
+            return spooledFile;
+        });
+        when(temporaryFileManager.createThumbnail(eq(attachmentReference), eq(VERSION),
+            any(ByteArrayInputStream.class))).thenReturn("test pptx result");
+
+        assertEquals("test pptx result", thumbnailGenerator.generateThumbnail(attachmentReference, VERSION));
+        assertFalse(spooledFile.exists());
+    }
+
+    @Test
+    void renderFirstSlideAtThumbnailSize() throws Exception
+    {
+        try (XMLSlideShow ppt = new XMLSlideShow()) {
+            ppt.setPageSize(new Dimension(1920, 1080));
+            ppt.createSlide();
+            BufferedImage image = PresentationThumbnailGenerator.renderFirstSlide(ppt);
+            assertEquals(AbstractOfficePdfThumbnailGenerator.THUMBNAIL_WIDTH, image.getWidth());
+            assertEquals(84, image.getHeight());
+        }
     }
 }
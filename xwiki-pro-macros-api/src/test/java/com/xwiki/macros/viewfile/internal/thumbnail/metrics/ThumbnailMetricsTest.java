@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.viewfile.internal.thumbnail.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.macros.viewfile.internal.thumbnail.ThumbnailGenerationScheduler;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PdfThumbnailGenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ThumbnailMetrics}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ThumbnailMetricsTest
+{
+    @InjectMockComponents
+    private ThumbnailMetrics metrics;
+
+    @MockComponent
+    private ThumbnailGenerationScheduler scheduler;
+
+    @Test
+    void recordGenerations()
+    {
+        metrics.recordGeneration(PdfThumbnailGenerator.HINT, 80, 1000);
+        metrics.recordGeneration(PdfThumbnailGenerator.HINT, 400, 3000);
+        metrics.recordFailure(PdfThumbnailGenerator.HINT, 70000, 500, new RuntimeException(new IOException("io")));
+        metrics.recordQueueWait(PdfThumbnailGenerator.HINT, 10);
+        metrics.recordQueueWait(PdfThumbnailGenerator.HINT, 30);
+        metrics.recordRejection(PdfThumbnailGenerator.HINT);
+        when(scheduler.getQueueDepth(PdfThumbnailGenerator.HINT)).thenReturn(3);
+
+        ThumbnailGeneratorMetricsMXBean pdfMetrics = metrics.getGeneratorMetrics(PdfThumbnailGenerator.HINT);
+        assertEquals(2, pdfMetrics.getGenerationCount());
+        assertEquals(1, pdfMetrics.getFailureCount());
+        assertEquals(Map.of("IOException", 1L), pdfMetrics.getFailuresByCause());
+        assertEquals(4500, pdfMetrics.getBytesRead());
+        assertEquals(70000, pdfMetrics.getMaxLatency());
+        assertEquals(1L, pdfMetrics.getLatencyHistogram().get("<=100ms"));
+        assertEquals(1L, pdfMetrics.getLatencyHistogram().get("<=500ms"));
+        assertEquals(1L, pdfMetrics.getLatencyHistogram().get(">60000ms"));
+        assertEquals(3, pdfMetrics.getQueueDepth());
+        assertEquals(1, pdfMetrics.getRejectedCount());
+        assertEquals(20D, pdfMetrics.getMeanQueueWaitTime());
+        assertEquals(30, pdfMetrics.getMaxQueueWaitTime());
+    }
+
+    @Test
+    void recordCacheLookups()
+    {
+        metrics.recordCacheLookup(true);
+        metrics.recordCacheLookup(true);
+        metrics.recordCacheLookup(true);
+        metrics.recordCacheLookup(false);
+
+        assertEquals(3, metrics.getCacheHitCount());
+        assertEquals(1, metrics.getCacheMissCount());
+        assertEquals(0.75D, metrics.getCacheHitRatio());
+    }
+
+    @Test
+    void exposedThroughJMX() throws Exception
+    {
+        metrics.recordOfficeConversion(200);
+        metrics.recordOfficeConversion(600);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName storeName = new ObjectName("com.xwiki.macros:type=ViewFileThumbnails,name=store");
+        ObjectName pdfName = new ObjectName("com.xwiki.macros:type=ViewFileThumbnails,generator=\"pdf\"");
+        assertTrue(server.isRegistered(storeName));
+        assertTrue(server.isRegistered(pdfName));
+        assertEquals(2L, server.getAttribute(storeName, "OfficeConversionCount"));
+        assertEquals(400D, server.getAttribute(storeName, "MeanOfficeConversionTime"));
+        assertEquals("pdf", server.getAttribute(pdfName, "Hint"));
+
+        metrics.dispose();
+
+        assertFalse(server.isRegistered(storeName));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.benchmarks.viewfile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports the peak heap usage of each benchmark iteration, i.e. the sum of the peak usage of the heap memory pools.
+ * Enabled with {@code -prof com.xwiki.macros.benchmarks.viewfile.PeakHeapProfiler}.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public class PeakHeapProfiler implements InternalProfiler
+{
+    private static final double MEGABYTE = 1024D * 1024D;
+
+    @Override
+    public String getDescription()
+    {
+        return "Peak heap usage of each iteration.";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams)
+    {
+        System.gc();
+        getHeapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+        IterationParams iterationParams, IterationResult result)
+    {
+        long peak = getHeapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        return List.of(new ScalarResult("heap.peak", peak / MEGABYTE, "MB", AggregationPolicy.MAX));
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools()
+    {
+        return ManagementFactory.getMemoryPoolMXBeans().stream().filter(pool -> pool.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.benchmarks.viewfile;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.poi.hslf.usermodel.HSLFPictureData;
+import org.apache.poi.hslf.usermodel.HSLFPictureShape;
+import org.apache.poi.hslf.usermodel.HSLFSlide;
+import org.apache.poi.hslf.usermodel.HSLFSlideShow;
+import org.apache.poi.hslf.usermodel.HSLFTextBox;
+import org.apache.poi.sl.usermodel.PictureData;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFPictureData;
+import org.apache.poi.xslf.usermodel.XSLFPictureShape;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+
+/**
+ * Builds the synthetic files used by the thumbnail benchmarks. The files are generated from a fixed seed, so that all
+ * the runs process the same content, and only use vector shapes and JPEG images, so that they don't depend on the fonts
+ * available on the machine.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+public final class ThumbnailCorpus
+{
+    private static final String JPG = "jpg";
+
+    private static final int SLIDE_WIDTH = 720;
+
+    private static final int SLIDE_HEIGHT = 540;
+
+    private ThumbnailCorpus()
+    {
+    }
+
+    /**
+     * @param pages the number of pages
+     * @param imageWidth the width of the photo drawn on each page, in pixels
+     * @return a PDF document with vector shapes and a photo on each page
+     * @throws IOException if the document can't be written
+     */
+    public static byte[] createPdf(int pages, int imageWidth) throws IOException
+    {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                PDImageXObject image =
+                    JPEGFactory.createFromByteArray(document, createPhoto(imageWidth, imageWidth * 3 / 4, i));
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    for (int line = 0; line < 40; line++) {
+                        content.setNonStrokingColor(new Color(30 + line * 5, 60, 120));
+                        content.addRect(50, 780 - line * 8F, 200 + (line * 37 % 290), 4);
+                        content.fill();
+                    }
+                    content.drawImage(image, 50, 80, 495, 371);
+                }
+            }
+            document.save(output);
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * @param slides the number of slides
+     * @param imageWidth the width of the photo displayed on each slide, in pixels
+     * @return an Office Open XML presentation with a full slide photo and a text box on each slide
+     * @throws IOException if the presentation can't be written
+     */
+    public static byte[] createPptx(int slides, int imageWidth) throws IOException
+    {
+        try (XMLSlideShow presentation = new XMLSlideShow(); ByteArrayOutputStream output = new ByteArrayOutputStream())
+        {
+            for (int i = 0; i < slides; i++) {
+                XSLFPictureData pictureData = presentation
+                    .addPicture(createPhoto(imageWidth, imageWidth * 3 / 4, i), PictureData.PictureType.JPEG);
+                XSLFSlide slide = presentation.createSlide();
+                XSLFPictureShape picture = slide.createPicture(pictureData);
+                picture.setAnchor(new Rectangle(0, 0, SLIDE_WIDTH, SLIDE_HEIGHT));
+                XSLFTextBox textBox = slide.createTextBox();
+                textBox.setAnchor(new Rectangle(40, 40, 640, 80));
+                textBox.setText("Slide " + (i + 1));
+            }
+            presentation.write(output);
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * @param slides the number of slides
+     * @param imageWidth the width of the photo displayed on each slide, in pixels
+     * @return a legacy PowerPoint presentation with a full slide photo and a text box on each slide
+     * @throws IOException if the presentation can't be written
+     */
+    public static byte[] createPpt(int slides, int imageWidth) throws IOException
+    {
+        try (HSLFSlideShow presentation = new HSLFSlideShow();
+            ByteArrayOutputStream output = new ByteArrayOutputStream())
+        {
+            for (int i = 0; i < slides; i++) {
+                HSLFPictureData pictureData = presentation
+                    .addPicture(createPhoto(imageWidth, imageWidth * 3 / 4, i), PictureData.PictureType.JPEG);
+                HSLFSlide slide = presentation.createSlide();
+                HSLFPictureShape picture = slide.createPicture(pictureData);
+                picture.setAnchor(new Rectangle2D.Double(0, 0, SLIDE_WIDTH, SLIDE_HEIGHT));
+                HSLFTextBox textBox = slide.createTextBox();
+                textBox.setAnchor(new Rectangle2D.Double(40, 40, 640, 80));
+                textBox.setText("Slide " + (i + 1));
+            }
+            presentation.write(output);
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * @param width the width of the page image, in pixels
+     * @return a JPEG page image, as returned by the office server when exporting the first page of a document
+     * @throws IOException if the image can't be encoded
+     */
+    public static byte[] createOfficePage(int width) throws IOException
+    {
+        return createPhoto(width, (int) (width * Math.sqrt(2)), 0);
+    }
+
+    /**
+     * @param pages the number of page images
+     * @param width the width of the page images, in pixels
+     * @return a ZIP holding a JPEG image per page, as returned by the office servers ignoring the page range
+     * @throws IOException if the archive can't be written
+     */
+    public static byte[] createOfficePageArchive(int pages, int width) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(output)) {
+            for (int i = 0; i < pages; i++) {
+                zip.putNextEntry(new ZipEntry(String.format("page%d.jpg", i + 1)));
+                zip.write(createPhoto(width, (int) (width * Math.sqrt(2)), i));
+                zip.closeEntry();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Draw a photo-like image: gradients, shapes and noise, so that the JPEG compression ratio is close to a real
+     * photo.
+     */
+    private static byte[] createPhoto(int width, int height, int seed) throws IOException
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(seed);
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), width, height,
+                new Color(random.nextInt())));
+            graphics.fillRect(0, 0, width, height);
+            for (int i = 0; i < 200; i++) {
+                graphics.setColor(new Color(random.nextInt(), true));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), 10 + random.nextInt(width / 4),
+                    10 + random.nextInt(height / 4));
+            }
+        } finally {
+            graphics.dispose();
+        }
+        for (int i = 0; i < width * height / 8; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, JPG, output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.macros.benchmarks.viewfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.macros.viewfile.internal.ViewFileConfiguration;
+import com.xwiki.macros.viewfile.internal.thumbnail.TemporaryFileManager;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.OfficeThumbnailGeneratorUtils;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PdfThumbnailGenerator;
+import com.xwiki.macros.viewfile.internal.thumbnail.generators.PresentationThumbnailGenerator;
+import com.xwiki.macros.viewfile.thumbnail.generators.ThumbnailGenerator;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the thumbnail generators on a synthetic corpus, from the attachment content to the encoded thumbnail:
+ * decode, render, resize and JPEG encode. The wiki, the thumbnail store and the office server are stubbed, the office
+ * conversion returning a prepared JPEG page or ZIP of pages, so that only the work done in the JVM is measured.
+ * <p>
+ * Build with {@code mvn package -Pbenchmarks -pl xwiki-pro-macros-benchmarks -am}, then run for instance:
+ * {@code java -jar xwiki-pro-macros-benchmarks/target/benchmarks.jar ThumbnailGeneratorBenchmark -prof gc
+ * -prof com.xwiki.macros.benchmarks.viewfile.PeakHeapProfiler}. The {@code gc} profiler reports the allocation rate
+ * ({@code gc.alloc.rate.norm} is the number of bytes allocated per thumbnail), the {@code PeakHeapProfiler} the peak
+ * heap usage.
+ *
+ * @version $Id$
+ * @since 1.31.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx1g", "-Djava.awt.headless=true" })
+public class ThumbnailGeneratorBenchmark
+{
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * The file processed by the benchmark.
+     */
+    @Param({ "small-pdf", "huge-pdf", "image-pptx", "legacy-ppt", "office-jpeg", "office-zip" })
+    public String corpus;
+
+    /**
+     * The size above which the attachments are copied to a temporary file before being processed, as configured by
+     * {@code viewfile.thumbnail.spoolThreshold}.
+     */
+    @Param({ "16" })
+    public long spoolThresholdMegabytes;
+
+    private ThumbnailGenerator generator;
+
+    private AttachmentReference attachmentReference;
+
+    private File temporaryDirectory;
+
+    private volatile int thumbnailSize;
+
+    /**
+     * Prepare the file of the selected corpus and the generator processing it.
+     *
+     * @throws Exception if the corpus can't be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        this.temporaryDirectory = Files.createTempDirectory("viewfile-benchmark").toFile();
+        switch (this.corpus) {
+            case "small-pdf":
+                setUp(new PdfThumbnailGenerator(), "small.pdf", ThumbnailCorpus.createPdf(3, 800), null);
+                break;
+            case "huge-pdf":
+                setUp(new PdfThumbnailGenerator(), "huge.pdf", ThumbnailCorpus.createPdf(60, 2400), null);
+                break;
+            case "image-pptx":
+                setUp(new PresentationThumbnailGenerator(), "images.pptx", ThumbnailCorpus.createPptx(30, 2400),
+                    null);
+                break;
+            case "legacy-ppt":
+                setUp(new PresentationThumbnailGenerator(), "legacy.ppt", ThumbnailCorpus.createPpt(30, 1600), null);
+                break;
+            case "office-jpeg":
+                setUp(new OfficeThumbnailGenerator(), "document.docx", new byte[0],
+                    ThumbnailCorpus.createOfficePage(1654));
+                break;
+            case "office-zip":
+                setUp(new OfficeThumbnailGenerator(), "document.docx", new byte[0],
+                    ThumbnailCorpus.createOfficePageArchive(5, 1654));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown corpus [%s].", this.corpus));
+        }
+    }
+
+    /**
+     * Remove the temporary files.
+     *
+     * @throws Exception if the temporary files can't be removed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.temporaryDirectory);
+    }
+
+    /**
+     * @return the size of the generated thumbnail
+     * @throws Exception if the thumbnail can't be generated
+     */
+    @Benchmark
+    public int generateThumbnail() throws Exception
+    {
+        this.generator.generateThumbnail(this.attachmentReference);
+        return this.thumbnailSize;
+    }
+
+    private void setUp(ThumbnailGenerator thumbnailGenerator, String fileName, byte[] content, byte[] officeResult)
+        throws Exception
+    {
+        this.generator = thumbnailGenerator;
+        DocumentReference documentReference = new DocumentReference("xwiki", "Benchmark", "WebHome");
+        this.attachmentReference = new AttachmentReference(fileName, documentReference);
+
+        XWikiContext wikiContext = mock(XWikiContext.class);
+        XWiki wiki = mock(XWiki.class);
+        XWikiDocument document = mock(XWikiDocument.class);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(wikiContext.getWiki()).thenReturn(wiki);
+        when(wiki.getDocument(documentReference, wikiContext)).thenReturn(document);
+        when(document.getAttachment(fileName)).thenReturn(attachment);
+        when(attachment.getLongSize()).thenReturn((long) content.length);
+        when(attachment.getContentInputStream(wikiContext)).thenAnswer(invocation -> new ByteArrayInputStream(content));
+        Provider<XWikiContext> wikiContextProvider = () -> wikiContext;
+
+        TemporaryFileManager temporaryFileManager = mock(TemporaryFileManager.class);
+        when(temporaryFileManager.createThumbnail(any(AttachmentReference.class), any(InputStream.class)))
+            .thenAnswer(invocation -> {
+                this.thumbnailSize = invocation.<InputStream>getArgument(1).readAllBytes().length;
+                return "thumbnail.jpg";
+            });
+        when(temporaryFileManager.spool(any(InputStream.class), anyString())).thenAnswer(invocation -> {
+            File file = File.createTempFile("spool", invocation.getArgument(1), this.temporaryDirectory);
+            Files.copy(invocation.<InputStream>getArgument(0), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        });
+
+        ViewFileConfiguration configuration = mock(ViewFileConfiguration.class);
+        when(configuration.getThumbnailSpoolThreshold()).thenReturn(this.spoolThresholdMegabytes * MEGABYTE);
+        when(configuration.getPdfMaxMainMemory()).thenReturn(64 * MEGABYTE);
+
+        OfficeThumbnailGeneratorUtils officeUtils = mock(OfficeThumbnailGeneratorUtils.class);
+        when(officeUtils.isOfficeServerConnected()).thenReturn(true);
+        when(officeUtils.getImageBytes(any(InputStream.class))).thenReturn(officeResult);
+
+        inject("wikiContextProvider", wikiContextProvider);
+        inject("temporaryFileManager", temporaryFileManager);
+        inject("configuration", configuration);
+        inject("officeUtils", officeUtils);
+        inject("logger", NOPLogger.NOP_LOGGER);
+    }
+
+    private void inject(String fieldName, Object value) throws IllegalAccessException
+    {
+        try {
+            Field field = ReflectionUtils.getField(this.generator.getClass(), fieldName);
+            field.setAccessible(true);
+            field.set(this.generator, value);
+        } catch (NoSuchFieldException e) {
+            // The field is not used by this generator.
+        }
+    }
+}